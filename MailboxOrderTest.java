@@ -0,0 +1,165 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBObject;
+
+import org.mongodb.morphia.Morphia;
+
+// many units of work changing one room at once, through the mailboxes, and
+// checks that the room's writes reach the store in the order they were
+// built holding its monitor, and that the store ends up with the room as it
+// is in memory
+// needs no mongo: java mud.MailboxOrderTest [threads] [writes per thread]
+public class MailboxOrderTest {
+    private static final Logger log = LoggerFactory.getLogger(MailboxOrderTest.class);
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int writes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Morphia morphia = MudEngine.getMorphia();
+        MudMemoryStore memory = new MudMemoryStore(morphia);
+        MudRoom room = new MudRoom();
+        room.setDescription("a room everyone is writing");
+        memory.save(room);
+        final ObjectId roomId = room.getId();
+
+        final OrderedStore store = new OrderedStore(memory, morphia);
+        final MudWorldCache cache = new MudWorldCache();
+        final MudMailboxes mailboxes = new MudMailboxes();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    for (int n = 0; n < writes; n++) {
+                        MudUnitOfWork unitOfWork = new MudUnitOfWork(store, cache);
+                        unitOfWork.setMailboxes(mailboxes);
+                        MudRoom room = unitOfWork.getRoom(roomId);
+                        synchronized (room) {
+                            MudExit exit = new MudExit();
+                            exit.setDestinationId(new ObjectId());
+                            room.addExit("north", exit);
+                            unitOfWork.markDirty(room);
+                        }
+                        unitOfWork.flush();
+                    }
+                }
+            }, "order-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers)
+            worker.join();
+        mailboxes.shutdown();
+
+        MudRoom written = cache.getRoom(roomId);
+        int failures = store.outOfOrder.get();
+        if (failures > 0)
+            log.error("{} writes reached the store out of order", failures);
+        DBObject expected;
+        synchronized (written) {
+            expected = morphia.toDBObject(written);
+        }
+        if (!expected.equals(store.documents.get(roomId))) {
+            log.error("the store has {} but the room is {}", store.documents.get(roomId), expected);
+            failures++;
+        }
+
+        log.info("{} threads, {} writes, {} failures, mailboxes {}", threads, threads * writes, failures,
+                mailboxes.getStats());
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // reads from the memory store, a write numbers the room as it's built,
+    // under the monitor, and keeps a copy of it as the stored document once
+    // it runs, counting any write that runs after a later one
+    private static final class OrderedStore implements MudWorldStore {
+        final MudMemoryStore store;
+        final Morphia morphia;
+        final AtomicLong built = new AtomicLong();
+        final Map<Object, Long> applied = new ConcurrentHashMap<Object, Long>();
+        final Map<Object, DBObject> documents = new ConcurrentHashMap<Object, DBObject>();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+
+        OrderedStore(MudMemoryStore store, Morphia morphia) {
+            this.store = store;
+            this.morphia = morphia;
+        }
+
+        public MudPlayer getPlayer(String id) {
+            return store.getPlayer(id);
+        }
+
+        public MudRoom getRoom(ObjectId id) {
+            return store.getRoom(id);
+        }
+
+        public MudLock getLock(ObjectId id) {
+            return store.getLock(id);
+        }
+
+        public List<MudPlayer> getPlayers(Collection<String> ids) {
+            return store.getPlayers(ids);
+        }
+
+        public List<MudRoom> getRooms(Collection<ObjectId> ids) {
+            return store.getRooms(ids);
+        }
+
+        public MudItemPrototypes getPrototypes() {
+            return store.getPrototypes();
+        }
+
+        public void save(Object entity) {
+            store.save(entity);
+        }
+
+        public void saveAll(List<?> entities) {
+            store.saveAll(entities);
+        }
+
+        public void update(Object entity, Object id, MudUpdate changes) {
+            store.update(entity, id, changes);
+        }
+
+        public void updateAll(Class<?> type, Map<Object, MudUpdate> updates) {
+            store.updateAll(type, updates);
+        }
+
+        public Runnable prepareSave(Object entity) {
+            return prepare(morphia.getMapper().getId(entity), entity);
+        }
+
+        public Runnable prepareUpdate(Object entity, Object id, MudUpdate changes) {
+            return prepare(id, entity);
+        }
+
+        private Runnable prepare(final Object id, Object entity) {
+            final long seq = built.incrementAndGet();
+            final DBObject document = morphia.toDBObject(entity);
+            return new Runnable() {
+                public void run() {
+                    Long last = applied.get(id);
+                    if (last != null && last > seq)
+                        outOfOrder.incrementAndGet();
+                    else
+                        applied.put(id, seq);
+                    documents.put(id, document);
+                }
+            };
+        }
+    }
+}
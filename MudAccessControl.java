@@ -1,24 +1,50 @@
 package mud;
 
 import org.mongodb.morphia.annotations.Embedded;
-import org.mongodb.morphia.annotations.Reference;
+import org.mongodb.morphia.annotations.Transient;
 
-import java.util.HashSet;
-import java.util.Date;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
 
+// the access list is the sorted ids of the players that have access, so
+// checking a player is a binary search and nothing is ever loaded for it
+// a list that's grown long gets a bloom filter in front, so the usual answer
+// for a shared lock, no access, doesn't even search
+// the array is replaced, never changed, so a lock shared between requests
+// can be checked while another request adds to it
+// ids are added to the document with a sorted $push, which keeps the stored
+// list in order, documents written before the list was kept sorted are
+// sorted in memory the first time they're checked and in the document the
+// next time someone is added, see MudLock.grantAccess
 @Embedded
 public class MudAccessControl {
+    // lists at least this long get a bloom filter
+    static final int FILTER_SIZE = 64;
+
     private boolean isShared;             // determines if the access control is share between all players
     private boolean isRestricted;         // if sharedlockstate by all players this contols the access control
-    @Reference
-    private HashSet<MudPlayer> accessList;// players in this hashset have access
-    public final MudTags tags;            // functionality tags
+    private volatile String[] accessList; // sorted ids of the players that have access, null until someone is added
+    private MudTags tags;                 // functionality tags, null until the first is added
+    @Transient
+    private volatile AccessIndex index;   // for the current accessList, null until it's checked
+
+    // an access list known to be sorted, and its bloom filter if it's long
+    private static final class AccessIndex {
+        final String[] ids;
+        final MudBloomFilter filter;
+        final String[] source;      // the loaded list ids was sorted from
+
+        AccessIndex(String[] ids, MudBloomFilter filter, String[] source) {
+            this.ids = ids;
+            this.filter = filter;
+            this.source = source;
+        }
+    }
 
     public MudAccessControl() {
         isShared = true;
         isRestricted = false;
-        accessList = new HashSet<MudPlayer>();
-        tags = new MudTags();
     }
 
     public boolean getIsShared() {
@@ -40,16 +66,115 @@ public class MudAccessControl {
     public boolean getIsRestrictedTo(MudPlayer player) {
         if (isShared)
             return isRestricted;
-        if (accessList.contains(player))
+        return !hasAccess(player.getId());
+    }
+
+    public boolean hasAccess(String playerId) {
+        AccessIndex current = index();
+        if (current == null)
             return false;
-        return true;
+        if (current.filter != null && !current.filter.mightContain(playerId))
+            return false;
+        return Arrays.binarySearch(current.ids, playerId) >= 0;
+    }
+
+    // sorted and read only, load the players through the MudUnitOfWork
+    public List<String> getAccessList() {
+        AccessIndex current = index();
+        if (current == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(Arrays.asList(current.ids));
+    }
+
+    public int getAccessCount() {
+        AccessIndex current = index();
+        return current != null ? current.ids.length : 0;
     }
 
     public void addToAcessList(MudPlayer player) {
-        accessList.add(player);
+        addToAccessList(player.getId());
     }
 
     public void removeFromAcessList(MudPlayer player) {
-        accessList.remove(player);
+        removeFromAccessList(player.getId());
+    }
+
+    // call holding the owner's monitor, returns whether the list changed
+    public boolean addToAccessList(String playerId) {
+        AccessIndex current = index();
+        String[] ids = current != null ? current.ids : new String[0];
+        int at = Arrays.binarySearch(ids, playerId);
+        if (at >= 0)
+            return false;
+        at = -at - 1;
+        String[] added = new String[ids.length + 1];
+        System.arraycopy(ids, 0, added, 0, at);
+        added[at] = playerId;
+        System.arraycopy(ids, at, added, at + 1, ids.length - at);
+        MudBloomFilter filter = null;
+        if (added.length >= FILTER_SIZE) {
+            if (current != null && current.filter != null && added.length <= current.filter.getCapacity())
+                filter = current.filter.with(playerId);
+            else
+                filter = MudBloomFilter.of(added);
+        }
+        publish(added, filter);
+        return true;
+    }
+
+    public boolean removeFromAccessList(String playerId) {
+        AccessIndex current = index();
+        if (current == null)
+            return false;
+        String[] ids = current.ids;
+        int at = Arrays.binarySearch(ids, playerId);
+        if (at < 0)
+            return false;
+        String[] removed = new String[ids.length - 1];
+        System.arraycopy(ids, 0, removed, 0, at);
+        System.arraycopy(ids, at + 1, removed, at, ids.length - at - 1);
+        // a bloom filter can't forget, but the old one only lets through a
+        // few more ids that the search then turns down
+        publish(removed.length > 0 ? removed : null, removed.length >= FILTER_SIZE ? current.filter : null);
+        return true;
+    }
+
+    private void publish(String[] ids, MudBloomFilter filter) {
+        accessList = ids;
+        index = ids != null ? new AccessIndex(ids, filter, ids) : null;
+    }
+
+    // the index of the current list, sorting it first if it's just been loaded
+    // only the index is set here, a check racing a change at worst leaves
+    // an index of the old list that the next check replaces
+    private AccessIndex index() {
+        String[] ids = accessList;
+        if (ids == null)
+            return null;
+        AccessIndex current = index;
+        if (current != null && (current.ids == ids || current.source == ids))
+            return current;
+        String[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || !sorted[i].equals(sorted[n - 1]))
+                sorted[n++] = sorted[i];
+        }
+        if (n < sorted.length)
+            sorted = Arrays.copyOf(sorted, n);
+        current = new AccessIndex(sorted, sorted.length >= FILTER_SIZE ? MudBloomFilter.of(sorted) : null, ids);
+        index = current;
+        return current;
+    }
+
+    public boolean hasTag(String tag) {
+        return tags != null && tags.hasTag(tag);
+    }
+
+    public void addTag(String tag) {
+        if (tags == null)
+            tags = new MudTags();
+        tags.addTag(tag);
     }
 }
@@ -0,0 +1,193 @@
+package mud;
+
+import java.util.Set;
+import java.util.Date;
+import java.util.Map;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DBObject;
+
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappedField;
+
+// buffers the touches every request makes, a player's interaction count and
+// last seen time and a room's last visited time, and writes them every few
+// seconds as one batch of $inc/$max updates per collection instead of as
+// part of each request's writes
+// the entities aren't changed until the batch is written, so a request sees
+// the counts as of the last flush, and whatever is buffered when the process
+// dies is lost, a few seconds of counters is an acceptable price
+// a $inc and a $max come out the same whichever order they're applied in, so
+// a batch doesn't care what the requests wrote in the meantime, as long as
+// nothing else writes these fields: the counts in an entity are behind the
+// store's, so a document already stored is never saved whole while this is
+// on, it's rewritten with everything but these fields, see rewrite
+public final class MudActivity {
+    private static final Logger log = LoggerFactory.getLogger(MudActivity.class);
+
+    public static final long DEFAULT_FLUSH_SECONDS = 5;
+
+    // the fields only ever written here
+    static final Set<String> FIELDS = new HashSet<String>(Arrays.asList("interactions", "lastSeen", "lastVisited"));
+
+    // a clock that moves once a second so touching something doesn't
+    // allocate a Date, nothing needs these times to the millisecond
+    // the dates are shared so don't change them
+    private static volatile Date now = new Date();
+
+    private final MudWorldStore store;
+    private final Morphia morphia;
+
+    // id -> pending changes, swapped out whole when flushed
+    private Map<Object, MudUpdate> players;
+    private Map<Object, MudUpdate> rooms;
+
+    private final AtomicLong touches;
+    private final AtomicLong flushes;
+    private final AtomicLong documents;
+
+    private ScheduledExecutorService flusher;
+
+    public MudActivity(MudWorldStore store, Morphia morphia) {
+        this.store = store;
+        this.morphia = morphia;
+        players = new HashMap<Object, MudUpdate>();
+        rooms = new HashMap<Object, MudUpdate>();
+        touches = new AtomicLong();
+        flushes = new AtomicLong();
+        documents = new AtomicLong();
+    }
+
+    public static Date now() {
+        Date date = now;
+        long millis = System.currentTimeMillis();
+        if (millis - date.getTime() >= 1000) {
+            date = new Date(millis);
+            now = date;
+        }
+        return date;
+    }
+
+    // one more interaction, seen now
+    public void playerActive(MudPlayer player) {
+        Date date = now();
+        synchronized (this) {
+            MudUpdate update = pending(players, player.getId());
+            update.inc("interactions", 1);
+            update.max("lastSeen", date);
+        }
+        touches.incrementAndGet();
+    }
+
+    public void roomVisited(MudRoom room) {
+        if (room.getId() == null)
+            return;
+        Date date = now();
+        synchronized (this) {
+            pending(rooms, room.getId()).max("lastVisited", date);
+        }
+        touches.incrementAndGet();
+    }
+
+    private static MudUpdate pending(Map<Object, MudUpdate> map, Object id) {
+        MudUpdate update = map.get(id);
+        if (update == null) {
+            update = new MudUpdate();
+            map.put(id, update);
+        }
+        return update;
+    }
+
+    // the update that writes the whole of an entity already stored except
+    // the fields buffered here, every other field is set, or unset if it's
+    // no longer in the document
+    public MudUpdate rewrite(Object entity) {
+        DBObject document = morphia.toDBObject(entity);
+        MudUpdate update = new MudUpdate();
+        for (MappedField field : morphia.getMapper().getMappedClass(entity).getPersistenceFields()) {
+            String name = field.getNameToStore();
+            if (name.equals("_id") || FIELDS.contains(name))
+                continue;
+            if (document.containsField(name))
+                update.set(name, document.get(name));
+            else
+                update.unset(name);
+        }
+        return update;
+    }
+
+    // write everything buffered so far, returns how many documents it touched
+    // a document that doesn't exist yet, a player whose first request hasn't
+    // been written, just misses out
+    public int flush() {
+        Map<Object, MudUpdate> flushPlayers;
+        Map<Object, MudUpdate> flushRooms;
+        synchronized (this) {
+            if (players.isEmpty() && rooms.isEmpty())
+                return 0;
+            flushPlayers = players;
+            flushRooms = rooms;
+            players = new HashMap<Object, MudUpdate>();
+            rooms = new HashMap<Object, MudUpdate>();
+        }
+        if (!flushPlayers.isEmpty())
+            store.updateAll(MudPlayer.class, flushPlayers);
+        if (!flushRooms.isEmpty())
+            store.updateAll(MudRoom.class, flushRooms);
+        int count = flushPlayers.size() + flushRooms.size();
+        flushes.incrementAndGet();
+        documents.addAndGet(count);
+        log.debug("activity for {} players, {} rooms written", flushPlayers.size(), flushRooms.size());
+        return count;
+    }
+
+    public synchronized void start(long period, TimeUnit unit) {
+        if (flusher != null)
+            throw new IllegalStateException("activity flushes already started");
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mud-activity");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    log.error("activity flush failed", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    // stop flushing in the background and write what's left
+    public void close() throws InterruptedException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = flusher;
+            flusher = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+            stopping.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        flush();
+    }
+
+    public String getStats() {
+        return String.format("touches = %d, flushes = %d, documents written = %d",
+                touches.get(), flushes.get(), documents.get());
+    }
+}
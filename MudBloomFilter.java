@@ -0,0 +1,76 @@
+package mud;
+
+// a bloom filter over strings: says for certain when a string was never
+// added, and probably yes when it was
+// about 10 bits and 7 probes per string gives under 1% false positives
+// strings can't be taken out, build a new one instead
+public final class MudBloomFilter {
+    private static final int BITS_PER_VALUE = 10;
+    private static final int PROBES = 7;
+
+    private final long[] bits;
+    private final int mask;
+
+    // room for expected strings at the false positive rate above
+    public MudBloomFilter(int expected) {
+        int size = 64;
+        while (size < expected * BITS_PER_VALUE && size < (1 << 30))
+            size <<= 1;
+        bits = new long[size >>> 6];
+        mask = size - 1;
+    }
+
+    public static MudBloomFilter of(String[] values) {
+        MudBloomFilter filter = new MudBloomFilter(values.length);
+        for (String value : values)
+            filter.add(value);
+        return filter;
+    }
+
+    private MudBloomFilter(long[] bits, int mask) {
+        this.bits = bits;
+        this.mask = mask;
+    }
+
+    // this one with value added as well, this one is left as it is
+    public MudBloomFilter with(String value) {
+        MudBloomFilter filter = new MudBloomFilter(bits.clone(), mask);
+        filter.add(value);
+        return filter;
+    }
+
+    // how many strings it holds before false positives go above 1%
+    public int getCapacity() {
+        return bits.length * 64 / BITS_PER_VALUE;
+    }
+
+    public void add(String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // a second hash from the first, odd so the probes cover every bit
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
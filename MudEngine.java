@@ -0,0 +1,243 @@
+package mud;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.Datastore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the MudEngine holds everything that is shared between requests: the world
+// store and the world cache, both of which are thread safe.  it never
+// holds any per player or per request state, that lives in a MudManager
+// created for each request, so one engine can serve any number of concurrent
+// sessions
+// startup is what a user hears as dead air, so a process only ever maps the
+// entities once, opens one mongo client and ensures the indexes once, and
+// that can be skipped with -Dmud.ensureIndexes=false once they've been made
+// ahead of time with: java mud.MudEngine
+// with -Dmud.journal=dir every write is also appended to a MudJournal there,
+// and adding -Dmud.writeBehind=true answers once the journal has a request's
+// writes on disk and leaves writing them to mongo to a MudWriteBehind
+public final class MudEngine {
+    private static final Logger log = LoggerFactory.getLogger(MudEngine.class);
+
+    static final String MONGO_DATABASE = "mud";
+
+    private final MudWorldStore store;
+    private final MudWorldCache cache;
+    private final MudActivity activity;
+    private volatile MudVocabulary vocabulary;
+    private final MudMailboxes mailboxes;
+    private final MudJournal journal;       // null if writes aren't journaled
+    private final MudWriteBehind writeBehind;   // null if mongo is written first
+
+    // totals over every request, see recordRequest
+    private final AtomicLong requests;
+    private final AtomicLong documentsLoaded;
+    private final AtomicLong documentsWritten;
+
+    // the engine on the mongo at -Dmud.mongoUri, the local one by default,
+    // made on first use and shared by everything in the process
+    private static final class Default {
+        static final MudEngine ENGINE = new MudEngine(newMorphiaStore(newMongoClient()), openJournal(),
+                Boolean.getBoolean("mud.writeBehind"));
+    }
+
+    // the entity mapping, morphia is thread safe once mapped
+    private static final class Mapping {
+        static final Morphia MORPHIA = newMorphia();
+    }
+
+    private static final AtomicBoolean indexesEnsured = new AtomicBoolean();
+
+    // the world in the local mongo
+    public MudEngine(final MongoClient mongoClient) {
+        this(newMorphiaStore(mongoClient));
+        log.info("engine ready on database {}", MONGO_DATABASE);
+    }
+
+    public MudEngine(final MudWorldStore store) {
+        this(store, null);
+    }
+
+    // every write to store is appended to journal too, and the engine closes
+    // the journal when it's closed
+    public MudEngine(final MudWorldStore store, final MudJournal journal) {
+        this(store, journal, false);
+    }
+
+    // with writeBehind, store has to be a MudMorphiaStore, and whatever the
+    // journal has that mongo might not is applied before the engine is ready
+    public MudEngine(final MudWorldStore store, final MudJournal journal, final boolean writeBehind) {
+        if (writeBehind) {
+            if (journal == null || !(store instanceof MudMorphiaStore))
+                throw new IllegalArgumentException("write behind needs a journal and a mongo store");
+            this.writeBehind = new MudWriteBehind(((MudMorphiaStore)store).getDatastore().getDB(), journal);
+            try {
+                this.writeBehind.recover();
+            } catch (IOException e) {
+                throw new IllegalStateException("can't recover from journal " + journal.getDir(), e);
+            }
+            this.writeBehind.start();
+            this.store = new MudJournalStore(store, this.writeBehind, getMorphia());
+        } else {
+            this.writeBehind = null;
+            this.store = journal != null ? new MudJournalStore(store, journal, getMorphia()) : store;
+        }
+        this.journal = journal;
+        cache = new MudWorldCache();
+        activity = new MudActivity(this.store, getMorphia());
+        vocabulary = new MudVocabulary();
+        mailboxes = new MudMailboxes();
+        activity.start(MudActivity.DEFAULT_FLUSH_SECONDS, TimeUnit.SECONDS);
+        requests = new AtomicLong();
+        documentsLoaded = new AtomicLong();
+        documentsWritten = new AtomicLong();
+    }
+
+    public static MudEngine getDefault() {
+        return Default.ENGINE;
+    }
+
+    public static Morphia getMorphia() {
+        return Mapping.MORPHIA;
+    }
+
+    // a mapping of its own, getMorphia() is nearly always what's wanted
+    public static Morphia newMorphia() {
+        Morphia morphia = new Morphia();
+        morphia.map(MudPlayer.class).map(MudRoom.class).map(MudItem.class).map(MudExit.class)
+                .map(MudLock.class).map(MudAccessControl.class).map(MudItemPrototype.class);
+        return morphia;
+    }
+
+    // the mongo at -Dmud.mongoUri, or the local one
+    static MongoClient newMongoClient() {
+        String uri = System.getProperty("mud.mongoUri");
+        if (uri == null)
+            return new MongoClient();
+        return new MongoClient(new MongoClientURI(uri));
+    }
+
+    // the journal at -Dmud.journal, started, if there is one, keeping
+    // -Dmud.journalRetentionHours of history
+    private static MudJournal openJournal() {
+        String dir = System.getProperty("mud.journal");
+        if (dir == null)
+            return null;
+        try {
+            MudJournal journal = new MudJournal(new File(dir));
+            journal.setRetention(Long.getLong("mud.journalRetentionHours", MudJournal.DEFAULT_RETENTION_HOURS),
+                    TimeUnit.HOURS);
+            journal.start(MudJournal.DEFAULT_SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+            return journal;
+        } catch (IOException e) {
+            throw new IllegalStateException("can't open journal " + dir, e);
+        }
+    }
+
+    private static MudMorphiaStore newMorphiaStore(MongoClient mongoClient) {
+        Morphia morphia = getMorphia();
+        Datastore datastore = morphia.createDatastore(mongoClient, MONGO_DATABASE);
+        if (!"false".equals(System.getProperty("mud.ensureIndexes")) && indexesEnsured.compareAndSet(false, true))
+            datastore.ensureIndexes();
+        return new MudMorphiaStore(datastore, morphia);
+    }
+
+    // make the indexes ahead of time, e.g. when deploying
+    public static void main(String[] args) {
+        MongoClient mongoClient = newMongoClient();
+        getMorphia().createDatastore(mongoClient, MONGO_DATABASE).ensureIndexes();
+        mongoClient.close();
+        log.info("indexes ensured on database {}", MONGO_DATABASE);
+    }
+
+    public MudWorldStore getStore() {
+        return store;
+    }
+
+    public MudWorldCache getCache() {
+        return cache;
+    }
+
+    public MudActivity getActivity() {
+        return activity;
+    }
+
+    // what's been written since the engine started, or since the vocabulary
+    // given to setVocabulary, e.g. MudVocabulary.load of the slot files
+    public MudVocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    public void setVocabulary(MudVocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    public MudUnitOfWork newUnitOfWork() {
+        MudUnitOfWork unitOfWork = new MudUnitOfWork(store, cache, activity);
+        unitOfWork.setVocabulary(vocabulary);
+        unitOfWork.setMailboxes(mailboxes);
+        return unitOfWork;
+    }
+
+    public MudMailboxes getMailboxes() {
+        return mailboxes;
+    }
+
+    public MudJournal getJournal() {
+        return journal;
+    }
+
+    public MudWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    // write out the buffered activity and anything written behind
+    public void close() throws InterruptedException {
+        activity.close();
+        mailboxes.shutdown();
+        if (writeBehind != null)
+            writeBehind.close();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("closing journal {} failed", journal.getDir(), e);
+            }
+        }
+    }
+
+    // called once a request is done with what its unit of work read and wrote
+    public void recordRequest(int loaded, int written) {
+        requests.incrementAndGet();
+        documentsLoaded.addAndGet(loaded);
+        documentsWritten.addAndGet(written);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getDocumentsLoaded() {
+        return documentsLoaded.get();
+    }
+
+    public long getDocumentsWritten() {
+        return documentsWritten.get();
+    }
+
+    public String getStats() {
+        long count = Math.max(1, requests.get());
+        return String.format("requests %d, documents loaded %.2f, written %.2f per request",
+                requests.get(), (double)documentsLoaded.get() / count, (double)documentsWritten.get() / count);
+    }
+}
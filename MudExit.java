@@ -2,14 +2,14 @@ package mud;
 
 import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Reference;
+import org.bson.types.ObjectId;
 
 import java.util.Date;
 import java.util.HashSet;
 
 @Embedded
 public class MudExit {
-    @Reference
-    private MudRoom destination;
+    private ObjectId destinationId;     // just the id, load the room through the MudUnitOfWork
     private String description;
     private MudAccessControl visibility;        
     @Reference
@@ -23,12 +23,17 @@ public class MudExit {
         tags = new MudTags();
     }
 
-    public MudRoom getDestination() {
-        return destination;
+    public ObjectId getDestinationId() {
+        return destinationId;
+    }
+
+    public void setDestinationId(ObjectId destinationId) {
+        this.destinationId = destinationId;
     }
 
+    // the room has to have been saved so it has an id
     public void setDestination(MudRoom room) {
-        destination = room;
+        destinationId = room.getId();
     }
 
     public String getDescription() {
@@ -59,6 +64,10 @@ public class MudExit {
         return false;
     }
 
+    public MudLock getLock() {
+        return lock;
+    }
+
     public void setLock(MudLock lock) {
         this.lock = lock;
     }
@@ -72,6 +81,6 @@ public class MudExit {
     }
 
     public void updateLastUsed() {
-        lastUsed = new Date();
+        lastUsed = MudActivity.now();
     }
 }
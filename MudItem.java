@@ -2,49 +2,112 @@ package mud;
 
 import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Reference;
+import org.mongodb.morphia.annotations.Transient;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.HashSet;
-
+import java.util.Collection;
+
+// items are the bulk of a world held in memory so they're kept small: the
+// yes/no properties share one int, text left at its default isn't stored, and
+// the contents, visibility and tags are only created once something is put in
+// them, until then the field is null and morphia leaves it out of the document
+// an item made from a MudItemPrototype keeps just the prototype's id and its
+// own state, the names, description, hint and messages it hasn't been given
+// itself come from the prototype, as do the prototype's tags
 @Embedded
 public class MudItem {
+    // the yes/no properties as bits in flags
+    public static final int FLAG_GETABLE = 1;       // can the item be taken or gotten from wherever it is
+    public static final int FLAG_CONTAINER = 2;     // can the item contain stuff
+    public static final int FLAG_USABLE = 4;        // can be invoked in a use context
+    public static final int FLAG_INGESTABLE = 8;    // can be ingested
+
+    private static final String DEFAULT_SHORT_NAME = "thing";
+    private static final String DEFAULT_FULL_NAME = "shapeless thing";
+    private static final String DEFAULT_DESCRIPTION = "a shapeless fob without color";
+    private static final String DEFAULT_NOT_GETABLE_MESSAGE = "strangely, that is immovable";
+
+    private String prototype;           // id of the MudItemPrototype this is one of, if any
     private String shortName;           // simple name, e.g. key, torch
     private String fullName;            // instead of just key, this could be "key for the red door"
     private String description;         // what is seen then the player looks at the item
     private String hint;                // hint, if any
-    private boolean isGetable;          // can the item be taken or gotten from wherever it is
-    private String notGetableMessage;   // what to display when someone tries to get it when isGetable = false
-    private boolean isContainer;        // can the item contain stuff
+    private int flags;                  // FLAG_ bits
+    private String notGetableMessage;   // what to display when someone tries to get it when it isn't getable
     @Embedded("contents")
-    private Map<String, MudItem> contents;// contents of the container if above is true
+    private MudItemMap contents;        // contents of the container, null until something is put in
     @Reference
     private MudLock lock;               // if not null, then this item is locked
-    public final MudAccessControl visibility; // can this be seen
-    private boolean isUsable;           // can be invoked in a use context
+    private MudAccessControl visibility;// can this be seen, null is seen by everyone
     private int usesLeft;               // how many more times can this be used, -1 = infinite, also how many ingests left, etc.
-    private boolean isIngestable;       // can be ingested
-    public final MudTags tags;          // functionality tags
+    private MudTags tags;               // functionality tags, null until the first is added
     private Date lastUsed;              // the last time the item was manipulated
+    @Transient
+    private MudItemMap.Slot slot;       // where this is in the map it's in, set once it's been indexed there
+    @Transient
+    private MudItemPrototype kind;      // the prototype itself, from the store the item was read from
 
     public MudItem() {
-        shortName = "thing";
-        fullName = "shapeless thing";
-        description = "a shapeless fob without color";
-        isGetable = true;
-        notGetableMessage = "strangely, that is immovable";
-        isContainer = false;
-        contents = new HashMap<String, MudItem>();
-        visibility = new MudAccessControl();
-        isUsable = false;
+        flags = FLAG_GETABLE;
         usesLeft = -1;
-        isIngestable = false;
-        tags = new MudTags();
+    }
+
+    // a new item of the prototype's kind, see MudItemPrototype.newItem
+    MudItem(MudItemPrototype prototype) {
+        this.prototype = prototype.getId();
+        kind = prototype;
+        flags = prototype.getFlags();
+        usesLeft = prototype.getUsesLeft();
+    }
+
+    // another item like this one, of the same prototype with the same state,
+    // but empty and never used, e.g. what a dispenser hands out
+    public MudItem newCopy() {
+        MudItem copy = new MudItem();
+        copy.prototype = prototype;
+        copy.kind = kind;
+        copy.shortName = shortName;
+        copy.fullName = fullName;
+        copy.description = description;
+        copy.hint = hint;
+        copy.flags = flags;
+        copy.notGetableMessage = notGetableMessage;
+        copy.lock = lock;
+        copy.usesLeft = usesLeft;
+        copy.tags = tags != null ? tags.copy() : null;
+        return copy;
+    }
+
+    public String getPrototypeId() {
+        return prototype;
+    }
+
+    // null if this isn't one or its prototype isn't in the store it was
+    // read from, see MudItemPrototypes.bind
+    public MudItemPrototype getPrototype() {
+        return kind;
+    }
+
+    void setPrototype(MudItemPrototype kind) {
+        this.kind = kind;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    private void setFlag(int flag, boolean set) {
+        if (set)
+            flags |= flag;
+        else
+            flags &= ~flag;
     }
 
     public String getShortName() {
-        return shortName;
+        if (shortName != null)
+            return shortName;
+        MudItemPrototype from = getPrototype();
+        return from != null && from.getShortName() != null ? from.getShortName() : DEFAULT_SHORT_NAME;
     }
 
     public void setShortName(String shortName) {
@@ -52,7 +115,10 @@ public class MudItem {
     }
 
     public String getFullName() {
-        return fullName;
+        if (fullName != null)
+            return fullName;
+        MudItemPrototype from = getPrototype();
+        return from != null && from.getFullName() != null ? from.getFullName() : DEFAULT_FULL_NAME;
     }
 
     public void setFullName(String fullName) {
@@ -60,7 +126,10 @@ public class MudItem {
     }
 
     public String getDescription() {
-        return description;
+        if (description != null)
+            return description;
+        MudItemPrototype from = getPrototype();
+        return from != null && from.getDescription() != null ? from.getDescription() : DEFAULT_DESCRIPTION;
     }
 
     public void setDescription(String description) {
@@ -68,7 +137,10 @@ public class MudItem {
     }
 
     public String getHint() {
-        return hint;
+        if (hint != null)
+            return hint;
+        MudItemPrototype from = getPrototype();
+        return from != null ? from.getHint() : null;
     }
 
     public void setHint(String hint) {
@@ -76,15 +148,18 @@ public class MudItem {
     }
 
     public boolean getIsGetable() {
-        return isGetable;
+        return (flags & FLAG_GETABLE) != 0;
     }
 
     public void setIsGetable(boolean isGetable) {
-        this.isGetable = isGetable;
+        setFlag(FLAG_GETABLE, isGetable);
     }
 
     public String getNotGetableMessage() {
-        return notGetableMessage;
+        if (notGetableMessage != null)
+            return notGetableMessage;
+        MudItemPrototype from = getPrototype();
+        return from != null && from.getNotGetableMessage() != null ? from.getNotGetableMessage() : DEFAULT_NOT_GETABLE_MESSAGE;
     }
 
     public void setNotGetableMessage(String notGetableMessage) {
@@ -92,53 +167,112 @@ public class MudItem {
     }
 
     public boolean getIsContainer() {
-        return isContainer;
+        return (flags & FLAG_CONTAINER) != 0;
     }
 
     public void setIsContainer(boolean isContainer) {
-        this.isContainer = isContainer;
+        setFlag(FLAG_CONTAINER, isContainer);
     }
 
     public boolean hasContent(String item) {
-        if (!isContainer)
+        if (!getIsContainer() || contents == null)
             return false;
-        return MudItemMapHelper.hasItem(contents, item);
+        return contents.has(item);
     }
 
     public boolean addContent(MudItem item) {
-        if (!isContainer)
+        if (!getIsContainer())
             return false;
-        MudItemMapHelper.addItem(contents, item);
+        if (contents == null)
+            contents = new MudItemMap(this);
+        contents.add(item);
         updateLastUsed();
         return true;
     }
 
     public MudItem removeContent(String name) {
-        if (!isContainer)
+        if (!getIsContainer() || contents == null)
             return null;
-        return MudItemMapHelper.removeItem(contents, name);
+        MudItem item = contents.remove(name);
+        if (contents.size() == 0)
+            contents = null;
+        return item;
     }
 
     public MudItem getContent(String name) {
-        if (!isContainer)
+        if (!getIsContainer() || contents == null)
             return null;
-        return MudItemMapHelper.getItem(contents, name);
+        return contents.get(name);
+    }
+
+    // the item answering to name in here, or failing that the first one put
+    // in with that short name anywhere further in, e.g. the cake in the tin
+    // in the chest, found in the chest's nested index
+    public MudItem findContent(String name) {
+        if (!getIsContainer() || contents == null)
+            return null;
+        MudItem item = contents.get(name);
+        if (item != null)
+            return item;
+        Collection<MudItem> nested = contents.getNested(name);
+        return nested.isEmpty() ? null : nested.iterator().next();
+    }
+
+    // take out an item found with findContent, from whichever container in
+    // here it's in
+    public boolean removeContent(MudItem item) {
+        if (contents == null)
+            return false;
+        MudItemMap in = item.getHeldIn();
+        if (in == null || !in.remove(item))
+            return false;
+        MudItem container = in == contents ? this : in.getHolder();
+        if (container != null && container.contents == in && in.size() == 0)
+            container.contents = null;
+        return true;
+    }
+
+    // the item this is directly inside of, null if it's in a room or an
+    // inventory, or hasn't been indexed where it is yet
+    public MudItem getContainer() {
+        MudItemMap in = getHeldIn();
+        return in != null ? in.getHolder() : null;
+    }
+
+    MudItemMap getHeldIn() {
+        return slot != null ? slot.map : null;
+    }
+
+    MudItemMap.Slot getSlot() {
+        return slot;
+    }
+
+    void setSlot(MudItemMap.Slot slot) {
+        this.slot = slot;
     }
 
-    public Map<String, MudItem> getContents() {
-        return contents;
+    // read only, MudItemMap.EMPTY if there's nothing inside
+    public MudItemMap getContents() {
+        return contents != null ? contents : MudItemMap.EMPTY;
     }
 
     public boolean getIsVisibleTo(MudPlayer player) {
-        return !visibility.getIsRestrictedTo(player);
+        return visibility == null || !visibility.getIsRestrictedTo(player);
+    }
+
+    // creates the visibility control the first time it's asked for
+    public MudAccessControl getVisibility() {
+        if (visibility == null)
+            visibility = new MudAccessControl();
+        return visibility;
     }
 
     public boolean getIsUsable() {
-        return isUsable;
+        return (flags & FLAG_USABLE) != 0;
     }
 
     public void setIsUsable(boolean isUsable) {
-        this.isUsable = isUsable;
+        setFlag(FLAG_USABLE, isUsable);
     }
 
     public int getUsesLeft() {
@@ -160,11 +294,11 @@ public class MudItem {
     }
 
     public boolean getIsIngestable() {
-        return isIngestable;
+        return (flags & FLAG_INGESTABLE) != 0;
     }
 
     public void setIsIngestable(boolean isIngestable) {
-        this.isIngestable = isIngestable;
+        setFlag(FLAG_INGESTABLE, isIngestable);
     }
 
     public boolean hasLock() {
@@ -181,11 +315,30 @@ public class MudItem {
         this.lock = null;
     }
 
+    public boolean hasTag(String tag) {
+        if (tags != null && tags.hasTag(tag))
+            return true;
+        MudItemPrototype from = getPrototype();
+        return from != null && from.hasTag(tag);
+    }
+
+    public void addTag(String tag) {
+        if (tags == null)
+            tags = new MudTags();
+        tags.addTag(tag);
+    }
+
+    // only tags added to this item, not its prototype's
+    public void removeTagIfExists(String tag) {
+        if (tags != null)
+            tags.removeTagIfExists(tag);
+    }
+
     public Date getLastUsed() {
         return lastUsed;
     }
 
     public void updateLastUsed() {
-        lastUsed = new Date();
+        lastUsed = MudActivity.now();
     }
 }
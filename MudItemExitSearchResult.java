@@ -1,17 +1,49 @@
 package mud;
 
-import java.util.List;
 import java.util.ArrayList;
 
 public class MudItemExitSearchResult {
     int found;
-    List<MudItem> playerItems;
-    List<MudItem> roomItems;
-    List<MudExit> roomExits;
+    final Matches<MudItem> playerItems;
+    final Matches<MudItem> roomItems;
+    final Matches<MudExit> roomExits;
 
     public MudItemExitSearchResult() {
-        playerItems = new ArrayList<MudItem>();
-        roomItems = new ArrayList<MudItem>();
-        roomExits = new ArrayList<MudExit>();
+        playerItems = new Matches<MudItem>();
+        roomItems = new Matches<MudItem>();
+        roomExits = new Matches<MudExit>();
+    }
+
+    // most searches find one thing or nothing, so the first match is kept
+    // in a field and a list is only made once there's a second
+    public static final class Matches<T> {
+        private T first;
+        private ArrayList<T> rest;
+        private int size;
+
+        void add(T match) {
+            if (size == 0) {
+                first = match;
+            } else {
+                if (rest == null)
+                    rest = new ArrayList<T>(2);
+                rest.add(match);
+            }
+            size++;
+        }
+
+        public T get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            return index == 0 ? first : rest.get(index - 1);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
     }
 }
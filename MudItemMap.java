@@ -0,0 +1,420 @@
+package mud;
+
+import org.mongodb.morphia.annotations.Embedded;
+import org.mongodb.morphia.annotations.Transient;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+// a container of items that can share a name
+// items with the same short name form a stack, the most recently added item
+// answers to the plain name and older ones are numbered from two, e.g. with
+// three keys added in order a, b, c: "key" is c, "key 2" is b, "key 3" is a
+// that's how items have always been addressed, but names are now worked out
+// from the stack instead of being stored, so adding or removing an item never
+// renames the others and the persisted map only ever changes by one entry
+// items are also indexed by full name, so don't rename an item while it's in
+// a container, take it out first
+// the first search inside the items here indexes everything in them, at any
+// depth, by name, and from then on the index is kept up to date as items are
+// put in and taken out of this map or any container in it, so finding the key
+// in the box in the chest is a lookup, not a walk of every container
+// an item knows the map it's in and a map the item holding it, so where a
+// nested item is, the containers it's in, is a walk up of its depth
+@Embedded
+public class MudItemMap {
+    // every item under a slot key that doesn't change while the item is here
+    @Embedded("slots")
+    private Map<String, MudItem> slots;
+
+    // short name -> stack of slots, oldest first, rebuilt from slots after a load
+    @Transient
+    private Map<String, ArrayList<Slot>> byName;
+    // full name -> slot key -> every item with that full name, oldest first,
+    // kept alongside byName, keyed by slot so taking one out doesn't search
+    @Transient
+    private Map<String, LinkedHashMap<String, MudItem>> byFullName;
+    @Transient
+    private long nextSlot;
+    // short name and full name -> every item inside the items here at any
+    // depth, but not the items here, oldest first, null until the first
+    // nested search, items don't override equals so the sets go by identity
+    @Transient
+    private Map<String, LinkedHashSet<MudItem>> nestedByName;
+    @Transient
+    private Map<String, LinkedHashSet<MudItem>> nestedByFullName;
+    // the item these are the contents of, null for a room's items or an
+    // inventory, or until it's looked for
+    @Transient
+    private MudItem holder;
+
+    // shared stand in for a container with nothing in it, can't be added to
+    public static final MudItemMap EMPTY = new MudItemMap(true);
+
+    @Transient
+    private final boolean isReadOnly;
+
+    // where an item is, the item points back at its slot so taking a given
+    // item out doesn't search for it
+    static final class Slot {
+        final String key;
+        final MudItem item;
+        final MudItemMap map;
+        int position;               // in the stack for its short name, 0 is the oldest
+
+        Slot(String key, MudItem item, MudItemMap map, int position) {
+            this.key = key;
+            this.item = item;
+            this.map = map;
+            this.position = position;
+        }
+    }
+
+    public MudItemMap() {
+        this(false);
+    }
+
+    // the contents of holder
+    MudItemMap(MudItem holder) {
+        this(false);
+        this.holder = holder;
+    }
+
+    private MudItemMap(boolean isReadOnly) {
+        this.isReadOnly = isReadOnly;
+        slots = new HashMap<String, MudItem>();
+    }
+
+    // add an item on top of the stack for its name
+    // returns how many items were already using the name
+    public int add(MudItem item) {
+        return add(item, null, null);
+    }
+
+    // as above, also recording the change under path in update
+    public int add(MudItem item, MudUpdate update, String path) {
+        if (isReadOnly)
+            throw new UnsupportedOperationException("can't add to a read only item map");
+        index();
+        String key = Long.toString(nextSlot++);
+        slots.put(key, item);
+        ArrayList<Slot> stack = byName.get(item.getShortName());
+        if (stack == null) {
+            stack = new ArrayList<Slot>(1);
+            byName.put(item.getShortName(), stack);
+        }
+        Slot slot = new Slot(key, item, this, stack.size());
+        stack.add(slot);
+        item.setSlot(slot);
+        addFullName(slot);
+        placed(item);
+        if (update != null)
+            update.set(path + ".slots." + key, item);
+        return stack.size() - 1;
+    }
+
+    public MudItem remove(String name) {
+        return remove(name, null, null);
+    }
+
+    // remove the item answering to name, the items above it in its stack
+    // move down a number
+    public MudItem remove(String name, MudUpdate update, String path) {
+        Slot slot = getSlot(name);
+        if (slot == null)
+            return null;
+        removeSlot(slot, update, path);
+        return slot.item;
+    }
+
+    // remove this very item, returns whether it was here
+    public boolean remove(MudItem item) {
+        Slot slot = item.getSlot();
+        if (slot == null || slot.map != this)
+            return false;
+        removeSlot(slot, null, null);
+        return true;
+    }
+
+    // the top of a stack comes off as it is, anywhere else only the items
+    // above it move down, which is what renumbers them
+    private void removeSlot(Slot slot, MudUpdate update, String path) {
+        String shortName = slot.item.getShortName();
+        ArrayList<Slot> stack = byName.get(shortName);
+        stack.remove(slot.position);
+        for (int i = slot.position; i < stack.size(); i++)
+            stack.get(i).position = i;
+        if (stack.isEmpty())
+            byName.remove(shortName);
+        slots.remove(slot.key);
+        removeFullName(slot);
+        taken(slot.item);
+        if (update != null)
+            update.unset(path + ".slots." + slot.key);
+    }
+
+    public MudItem get(String name) {
+        Slot slot = getSlot(name);
+        return slot == null ? null : slot.item;
+    }
+
+    public boolean has(String name) {
+        return getSlot(name) != null;
+    }
+
+    // every item with the full name, oldest first, read only
+    public Collection<MudItem> getByFullName(String name) {
+        index();
+        LinkedHashMap<String, MudItem> mudItems = byFullName.get(name);
+        if (mudItems == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableCollection(mudItems.values());
+    }
+
+    // every item with the short name inside the items here, at any depth,
+    // oldest first, read only
+    public Collection<MudItem> getNested(String name) {
+        indexNested();
+        LinkedHashSet<MudItem> mudItems = nestedByName.get(name);
+        if (mudItems == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableCollection(mudItems);
+    }
+
+    public Collection<MudItem> getNestedByFullName(String name) {
+        indexNested();
+        LinkedHashSet<MudItem> mudItems = nestedByFullName.get(name);
+        if (mudItems == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableCollection(mudItems);
+    }
+
+    // the containers the item is in, outermost first, starting with one of
+    // the items here, empty if it's here itself and null if it isn't in here
+    public List<MudItem> getPath(MudItem item) {
+        ArrayList<MudItem> path = new ArrayList<MudItem>();
+        MudItemMap in = item.getHeldIn();
+        while (in != this) {
+            if (in == null || in.holder == null)
+                return null;
+            path.add(in.holder);
+            in = in.holder.getHeldIn();
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    // the item these are the contents of, or null
+    MudItem getHolder() {
+        return holder;
+    }
+
+    // record that an item in this map was changed in place, e.g. its contents
+    // an item further in is recorded as a change to the item here holding it
+    public void changed(MudItem item, MudUpdate update, String path) {
+        index();
+        while (item.getHeldIn() != null && item.getHeldIn() != this && item.getHeldIn().holder != null)
+            item = item.getHeldIn().holder;
+        Slot slot = item.getSlot();
+        if (slot != null && slot.map == this)
+            update.set(path + ".slots." + slot.key, item);
+    }
+
+    // the names items here answer to, e.g. key, key 2, sign
+    public List<String> getNames() {
+        index();
+        List<String> names = new ArrayList<String>(slots.size());
+        for (Map.Entry<String, ArrayList<Slot>> entry : byName.entrySet()) {
+            names.add(entry.getKey());
+            for (int i = 2; i <= entry.getValue().size(); i++)
+                names.add(entry.getKey() + " " + i);
+        }
+        return names;
+    }
+
+    public Collection<MudItem> values() {
+        return slots.values();
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    private Slot getSlot(String name) {
+        index();
+        ArrayList<Slot> stack = byName.get(name);
+        if (stack != null)
+            return stack.get(stack.size() - 1);
+        int split = getNumberSuffixStart(name);
+        if (split < 0)
+            return null;
+        stack = byName.get(name.substring(0, split - 1));
+        if (stack == null)
+            return null;
+        int position = Integer.parseInt(name.substring(split));
+        if (position < 2 || position > stack.size())
+            return null;
+        return stack.get(stack.size() - position);
+    }
+
+    // where the number starts in a name like "key 12", -1 if there isn't one
+    private static int getNumberSuffixStart(String name) {
+        int i = name.length();
+        while (i > 0 && Character.isDigit(name.charAt(i - 1)))
+            i--;
+        if (i == name.length() || i < 2 || name.charAt(i - 1) != ' ' || name.length() - i > 9)
+            return -1;
+        return i;
+    }
+
+    // build the name stacks from the stored slots, slot keys are handed out
+    // in increasing order so sorting on them gives back the stack order
+    private void index() {
+        if (byName != null)
+            return;
+        List<Map.Entry<String, MudItem>> entries = new ArrayList<Map.Entry<String, MudItem>>(slots.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, MudItem>>() {
+            public int compare(Map.Entry<String, MudItem> a, Map.Entry<String, MudItem> b) {
+                return Long.compare(Long.parseLong(a.getKey()), Long.parseLong(b.getKey()));
+            }
+        });
+        byName = new LinkedHashMap<String, ArrayList<Slot>>();
+        byFullName = new HashMap<String, LinkedHashMap<String, MudItem>>();
+        nextSlot = 0;
+        for (Map.Entry<String, MudItem> entry : entries) {
+            MudItem item = entry.getValue();
+            ArrayList<Slot> stack = byName.get(item.getShortName());
+            if (stack == null) {
+                stack = new ArrayList<Slot>(1);
+                byName.put(item.getShortName(), stack);
+            }
+            Slot slot = new Slot(entry.getKey(), item, this, stack.size());
+            stack.add(slot);
+            item.setSlot(slot);
+            addFullName(slot);
+            nextSlot = Math.max(nextSlot, Long.parseLong(entry.getKey()) + 1);
+        }
+    }
+
+    private void addFullName(Slot slot) {
+        String fullName = slot.item.getFullName();
+        if (fullName == null)
+            return;
+        LinkedHashMap<String, MudItem> mudItems = byFullName.get(fullName);
+        if (mudItems == null) {
+            mudItems = new LinkedHashMap<String, MudItem>(2);
+            byFullName.put(fullName, mudItems);
+        }
+        mudItems.put(slot.key, slot.item);
+    }
+
+    private void removeFullName(Slot slot) {
+        String fullName = slot.item.getFullName();
+        if (fullName == null)
+            return;
+        LinkedHashMap<String, MudItem> mudItems = byFullName.get(fullName);
+        if (mudItems == null)
+            return;
+        mudItems.remove(slot.key);
+        if (mudItems.isEmpty())
+            byFullName.remove(fullName);
+    }
+
+    // the map holding the item these are the contents of, or null
+    private MudItemMap getAbove() {
+        return holder != null ? holder.getHeldIn() : null;
+    }
+
+    // item was just put here, so it and everything in it are now inside
+    // whichever maps above have a nested index
+    private void placed(MudItem item) {
+        if (nestedByName != null)
+            addNestedContents(item);
+        for (MudItemMap above = getAbove(); above != null; above = above.getAbove()) {
+            if (above.nestedByName != null) {
+                above.addNested(item);
+                above.addNestedContents(item);
+            }
+        }
+    }
+
+    private void taken(MudItem item) {
+        if (nestedByName != null)
+            removeNestedContents(item);
+        for (MudItemMap above = getAbove(); above != null; above = above.getAbove()) {
+            if (above.nestedByName != null) {
+                above.removeNested(item);
+                above.removeNestedContents(item);
+            }
+        }
+        item.setSlot(null);
+    }
+
+    // index everything in the items here, pointing every item on the way at
+    // the map it's in, so the indexes above it can be kept up to date
+    private void indexNested() {
+        if (nestedByName != null)
+            return;
+        index();
+        nestedByName = new HashMap<String, LinkedHashSet<MudItem>>();
+        nestedByFullName = new HashMap<String, LinkedHashSet<MudItem>>();
+        for (MudItem item : slots.values())
+            addNestedContents(item);
+    }
+
+    private void addNestedContents(MudItem item) {
+        MudItemMap contents = item.getContents();
+        if (contents.size() == 0)
+            return;
+        contents.holder = item;
+        contents.index();
+        for (MudItem inside : contents.slots.values()) {
+            addNested(inside);
+            addNestedContents(inside);
+        }
+    }
+
+    private void removeNestedContents(MudItem item) {
+        for (MudItem inside : item.getContents().values()) {
+            removeNested(inside);
+            removeNestedContents(inside);
+        }
+    }
+
+    private void addNested(MudItem item) {
+        addTo(nestedByName, item.getShortName(), item);
+        if (item.getFullName() != null)
+            addTo(nestedByFullName, item.getFullName(), item);
+    }
+
+    private void removeNested(MudItem item) {
+        removeFrom(nestedByName, item.getShortName(), item);
+        if (item.getFullName() != null)
+            removeFrom(nestedByFullName, item.getFullName(), item);
+    }
+
+    private static void addTo(Map<String, LinkedHashSet<MudItem>> index, String name, MudItem item) {
+        LinkedHashSet<MudItem> mudItems = index.get(name);
+        if (mudItems == null) {
+            mudItems = new LinkedHashSet<MudItem>(2);
+            index.put(name, mudItems);
+        }
+        mudItems.add(item);
+    }
+
+    private static void removeFrom(Map<String, LinkedHashSet<MudItem>> index, String name, MudItem item) {
+        LinkedHashSet<MudItem> mudItems = index.get(name);
+        if (mudItems == null)
+            return;
+        mudItems.remove(item);
+        if (mudItems.isEmpty())
+            index.remove(name);
+    }
+}
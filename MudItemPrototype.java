@@ -0,0 +1,110 @@
+package mud;
+
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.Entity;
+
+// what every copy of an item has in common, its names, description, hint,
+// flags, uses and tags, kept once in the prototypes collection instead of in
+// every room and inventory holding one
+// an item made from a prototype stores only the prototype's id and its own
+// state, how many uses are left, when it was last used, its lock and
+// contents, and anything set on the item itself overrides the prototype
+// each store keeps the prototypes of its world in its MudItemPrototypes and
+// points the items it reads at theirs
+@Entity("prototypes")
+public class MudItemPrototype {
+    @Id private String id;              // e.g. brass key
+    private String shortName;
+    private String fullName;
+    private String description;
+    private String hint;
+    private int flags;                  // MudItem.FLAG_ bits
+    private String notGetableMessage;
+    private int usesLeft;               // what a new item starts with
+    private MudTags tags;               // null until the first is added
+
+    public MudItemPrototype() {
+        flags = MudItem.FLAG_GETABLE;
+        usesLeft = -1;
+    }
+
+    public MudItemPrototype(String id) {
+        this();
+        this.id = id;
+    }
+
+    // a new item of this kind
+    public MudItem newItem() {
+        return new MudItem(this);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+
+    public void setShortName(String shortName) {
+        this.shortName = shortName;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public void setFullName(String fullName) {
+        this.fullName = fullName;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getHint() {
+        return hint;
+    }
+
+    public void setHint(String hint) {
+        this.hint = hint;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public String getNotGetableMessage() {
+        return notGetableMessage;
+    }
+
+    public void setNotGetableMessage(String notGetableMessage) {
+        this.notGetableMessage = notGetableMessage;
+    }
+
+    public int getUsesLeft() {
+        return usesLeft;
+    }
+
+    public void setUsesLeft(int usesLeft) {
+        this.usesLeft = usesLeft;
+    }
+
+    public boolean hasTag(String tag) {
+        return tags != null && tags.hasTag(tag);
+    }
+
+    public void addTag(String tag) {
+        if (tags == null)
+            tags = new MudTags();
+        tags.addTag(tag);
+    }
+}
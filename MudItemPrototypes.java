@@ -0,0 +1,62 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the item prototypes of one world, by id, every MudWorldStore has its own,
+// so engines on different stores in one process never see each other's
+// a store registers prototypes as they're written or read, and points each
+// item it reads at its prototype here, see bind, before anything asks the
+// item its name
+public final class MudItemPrototypes {
+    private final Map<String, MudItemPrototype> prototypes;
+
+    public MudItemPrototypes() {
+        prototypes = new ConcurrentHashMap<String, MudItemPrototype>();
+    }
+
+    // null if there isn't one with id
+    public MudItemPrototype get(String id) {
+        return prototypes.get(id);
+    }
+
+    // don't change a prototype once it's registered, register a new one
+    // under the same id instead
+    public void register(MudItemPrototype prototype) {
+        prototypes.put(prototype.getId(), prototype);
+    }
+
+    public void registerAll(Collection<MudItemPrototype> prototypes) {
+        for (MudItemPrototype prototype : prototypes)
+            register(prototype);
+    }
+
+    public List<MudItemPrototype> getAll() {
+        return new ArrayList<MudItemPrototype>(prototypes.values());
+    }
+
+    public int size() {
+        return prototypes.size();
+    }
+
+    // point every item in a room or inventory, and everything inside them,
+    // at its prototype, anything else is left alone
+    public void bind(Object entity) {
+        if (entity instanceof MudRoom)
+            bind(((MudRoom)entity).getItems());
+        else if (entity instanceof MudPlayer)
+            bind(((MudPlayer)entity).getItems());
+    }
+
+    public void bind(MudItemMap items) {
+        for (MudItem item : items.values()) {
+            if (item.getPrototypeId() != null)
+                item.setPrototype(prototypes.get(item.getPrototypeId()));
+            if (item.getContents().size() > 0)
+                bind(item.getContents());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package mud;
+
+// a precompiled item and exit search, build one per kind of intent and reuse it
+// the yes/no item properties are folded into a mask and the value the masked
+// item flags must have, so most of a match is a single compare
+// properties left unset aren't checked
+public final class MudItemQuery {
+    private final int mask;             // which of the item flags matter
+    private final int value;            // what they have to be
+    private final Boolean isVisible;    // depends on the player, so not a flag
+    private final Boolean hasUsesLeft;
+    private final String hasTag;
+    private final boolean includePlayer;
+    private final boolean includeRoom;
+    private final boolean includeExits;
+    private final boolean includeFullName;
+    private final boolean includeNested;
+    private final boolean exitsCanMatch;// exits have none of the item properties
+
+    private MudItemQuery(Builder builder) {
+        mask = builder.mask;
+        value = builder.value;
+        isVisible = builder.isVisible;
+        hasUsesLeft = builder.hasUsesLeft;
+        hasTag = builder.hasTag;
+        includePlayer = builder.includePlayer;
+        includeRoom = builder.includeRoom;
+        includeExits = builder.includeExits;
+        includeFullName = builder.includeFullName;
+        includeNested = builder.includeNested;
+        // an exit can't be gotten, hold anything, be used or ingested, and
+        // has no uses to count
+        exitsCanMatch = builder.includeExits && (value & (MudItem.FLAG_GETABLE | MudItem.FLAG_CONTAINER
+                | MudItem.FLAG_USABLE)) == 0 && (mask & MudItem.FLAG_INGESTABLE) == 0 && hasUsesLeft == null;
+    }
+
+    public boolean getIncludePlayer() {
+        return includePlayer;
+    }
+
+    public boolean getIncludeRoom() {
+        return includeRoom;
+    }
+
+    public boolean getIncludeExits() {
+        return exitsCanMatch;
+    }
+
+    public boolean getIncludeFullName() {
+        return includeFullName;
+    }
+
+    public boolean getIncludeNested() {
+        return includeNested;
+    }
+
+    public boolean matches(MudPlayer player, MudItem mudItem) {
+        if (mudItem == null)
+            return false;
+        if ((mudItem.getFlags() & mask) != value)
+            return false;
+        if (hasUsesLeft != null && hasUsesLeft != (mudItem.getUsesLeft() != 0))
+            return false;
+        if (hasTag != null && !mudItem.hasTag(hasTag))
+            return false;
+        if (isVisible != null && isVisible != mudItem.getIsVisibleTo(player))
+            return false;
+        return true;
+    }
+
+    public boolean matches(MudPlayer player, MudExit mudExit) {
+        if (mudExit == null || !exitsCanMatch)
+            return false;
+        if (hasTag != null && !mudExit.tags.hasTag(hasTag))
+            return false;
+        if (isVisible != null && isVisible != mudExit.getIsVisibleTo(player))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mask = %x, value = %x, isVisible = %s, hasUsesLeft = %s, hasTag = %s, "
+                + "includePlayer = %b, includeRoom = %b, includeExits = %b, includeFullName = %b, includeNested = %b",
+                mask, value, isVisible, hasUsesLeft, hasTag, includePlayer, includeRoom,
+                includeExits, includeFullName, includeNested);
+    }
+
+    public static final class Builder {
+        private int mask;
+        private int value;
+        private Boolean isVisible;
+        private Boolean hasUsesLeft;
+        private String hasTag;
+        private boolean includePlayer;
+        private boolean includeRoom;
+        private boolean includeExits;
+        private boolean includeFullName;
+        private boolean includeNested;
+
+        public Builder isGetable(boolean isGetable) {
+            return flag(MudItem.FLAG_GETABLE, isGetable);
+        }
+
+        public Builder isContainer(boolean isContainer) {
+            return flag(MudItem.FLAG_CONTAINER, isContainer);
+        }
+
+        public Builder isUsable(boolean isUsable) {
+            return flag(MudItem.FLAG_USABLE, isUsable);
+        }
+
+        public Builder isIngestable(boolean isIngestable) {
+            return flag(MudItem.FLAG_INGESTABLE, isIngestable);
+        }
+
+        public Builder isVisible(boolean isVisible) {
+            this.isVisible = isVisible;
+            return this;
+        }
+
+        // -1 is unlimited uses, so it counts as having uses left
+        public Builder hasUsesLeft(boolean hasUsesLeft) {
+            this.hasUsesLeft = hasUsesLeft;
+            return this;
+        }
+
+        public Builder hasTag(String hasTag) {
+            this.hasTag = hasTag;
+            return this;
+        }
+
+        // search the player's inventory
+        public Builder includePlayer() {
+            includePlayer = true;
+            return this;
+        }
+
+        // search the items in the player's room
+        public Builder includeRoom() {
+            includeRoom = true;
+            return this;
+        }
+
+        // search the exits of the player's room
+        public Builder includeExits() {
+            includeExits = true;
+            return this;
+        }
+
+        // match items on their full name as well as their short name
+        public Builder includeFullName() {
+            includeFullName = true;
+            return this;
+        }
+
+        // search inside the containers carried or in the room too, at any depth
+        public Builder includeNested() {
+            includeNested = true;
+            return this;
+        }
+
+        public MudItemQuery build() {
+            return new MudItemQuery(this);
+        }
+
+        private Builder flag(int flag, boolean set) {
+            mask |= flag;
+            if (set)
+                value |= flag;
+            else
+                value &= ~flag;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,728 @@
+package mud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Map;
+import java.util.List;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.SortedSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.util.JSON;
+
+// every write made to the world, appended in order to a log in a local
+// directory: whole documents as they're saved and the mongo update of each
+// field level change, a player moving, an item changing hands, a lock
+// opening, counters going up
+// the log is split into segments, 00000001.journal, 00000002.journal, ...
+// and a new one is started every so often, when the world as of the start
+// of the new segment is worked out in the background from the last snapshot
+// and the segments since, and written as a MudSnapshot, 00000002.snap, so
+// the world can always be rebuilt from one snapshot and what followed it
+// once a snapshot is taken, the segments and snapshots only needed to go
+// back further than the retention, a day unless set, are deleted, see prune
+// nothing in the running world is read to make a snapshot, so taking one
+// never holds up a request, and replaying up to a given time rebuilds the
+// world as it was then, see replay
+// a new journal starts from an empty world, or from a snapshot handed to seed
+// every record has a sequence number, the segment in the high 32 bits and
+// its place in the segment in the low, that only ever goes up, and sync
+// makes everything up to a sequence number durable, any number of threads
+// waiting to sync share one fsync
+// the locks are ReentrantLocks rather than monitors, a request on a virtual
+// thread waiting for the fsync gives up its carrier meanwhile
+// segment: "MUDJ", version, start time, then (time, collection byte, kind
+// byte, bson document)... until the end of the file, a record cut short by
+// the process dying is ignored
+// java mud.MudJournal replay dir file [time] | print segment
+public final class MudJournal {
+    private static final Logger log = LoggerFactory.getLogger(MudJournal.class);
+
+    private static final int MAGIC = 0x4d55444a;    // MUDJ
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int RECORD_HEADER = 10;
+
+    private static final byte SAVE = 1;
+    private static final byte UPDATE = 2;
+
+    public static final long DEFAULT_SNAPSHOT_MINUTES = 10;
+    public static final long DEFAULT_RETENTION_HOURS = 24;
+    private static final long FLUSH_MILLIS = 1000;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    // what's done with each record read
+    public interface Visitor {
+        // document is the whole document saved
+        void save(long seq, long time, String collection, DBObject document) throws IOException;
+
+        // update is a mongo update, $set, $inc, ..., of the document with id
+        void update(long seq, long time, String collection, Object id, DBObject update) throws IOException;
+    }
+
+    private final File dir;
+    private final ReentrantLock lock;
+    private FileOutputStream file;      // guarded by lock, as is out
+    private DataOutputStream out;       // null once closed
+    private int segment;
+    private long segmentRecords;
+    private long lastSeq;
+
+    // held while syncing, and taken before lock when both are
+    private final ReentrantLock syncLock;
+    private volatile long synced;       // durable up to here
+
+    private volatile long retention;    // millis
+    private volatile long retainAfter;  // Long.MAX_VALUE if nobody's behind
+
+    private final AtomicLong records;
+    private final AtomicLong bytes;
+    private final AtomicLong snapshots;
+    private final AtomicLong deleted;
+
+    private ScheduledExecutorService worker;
+
+    // carry on the journal in dir, in a new segment
+    public MudJournal(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't make journal directory " + dir);
+        SortedSet<Integer> segments = numbers(dir, SEGMENT_SUFFIX);
+        SortedSet<Integer> snapshots = numbers(dir, SNAPSHOT_SUFFIX);
+        segment = Math.max(1, Math.max(segments.isEmpty() ? 0 : segments.last() + 1,
+                snapshots.isEmpty() ? 0 : snapshots.last()));
+        records = new AtomicLong();
+        bytes = new AtomicLong();
+        this.snapshots = new AtomicLong();
+        deleted = new AtomicLong();
+        retention = TimeUnit.HOURS.toMillis(DEFAULT_RETENTION_HOURS);
+        retainAfter = Long.MAX_VALUE;
+        lock = new ReentrantLock();
+        syncLock = new ReentrantLock();
+        open();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    // a whole document, as saved, returns its sequence number
+    public long save(String collection, DBObject document) {
+        return append(SAVE, collection, document);
+    }
+
+    // the update made to the document with id
+    public long update(String collection, Object id, DBObject update) {
+        return append(UPDATE, collection, new BasicDBObject("_id", id).append("update", update));
+    }
+
+    private long append(byte kind, String collection, DBObject document) {
+        byte code = MudSnapshot.code(collection);
+        byte[] bson = new DefaultDBEncoder().encode(document);
+        long seq;
+        lock.lock();
+        try {
+            if (out == null)
+                throw new IllegalStateException("journal " + dir + " is closed");
+            try {
+                out.writeLong(System.currentTimeMillis());
+                out.writeByte(code);
+                out.writeByte(kind);
+                out.write(bson);
+            } catch (IOException e) {
+                throw new IllegalStateException("journal write to " + dir + " failed", e);
+            }
+            seq = seq(segment, segmentRecords++);
+            lastSeq = seq;
+        } finally {
+            lock.unlock();
+        }
+        records.incrementAndGet();
+        bytes.addAndGet(RECORD_HEADER + bson.length);
+        return seq;
+    }
+
+    // wait until the record seq, and everything before it, is on disk
+    // whoever gets here first syncs everything appended so far, so the
+    // threads that were waiting behind it are usually done too
+    public void sync(long seq) {
+        if (synced >= seq)
+            return;
+        syncLock.lock();
+        try {
+            if (synced >= seq)
+                return;
+            long through;
+            FileChannel channel;
+            lock.lock();
+            try {
+                if (out == null)
+                    throw new IllegalStateException("journal " + dir + " is closed");
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException("journal write to " + dir + " failed", e);
+                }
+                through = lastSeq;
+                channel = file.getChannel();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("journal sync in " + dir + " failed", e);
+            }
+            synced = through;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // the world this journal starts from, only for a journal nothing has
+    // been written to yet
+    public void seed(File snapshot) throws IOException {
+        lock.lock();
+        try {
+            if (segmentRecords > 0 || !numbers(dir, SEGMENT_SUFFIX).headSet(segment).isEmpty()
+                    || snapshotFile(dir, segment).exists())
+                throw new IllegalStateException("journal " + dir + " already has a world");
+            Files.copy(snapshot.toPath(), snapshotFile(dir, segment).toPath());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // how long ago the world can still be rebuilt as it was, from the
+    // newest snapshot that old, Long.MAX_VALUE keeps everything
+    public void setRetention(long retention, TimeUnit unit) {
+        this.retention = unit.toMillis(retention);
+    }
+
+    // the records after seq are kept whatever the retention, for a reader
+    // that hasn't caught up with them yet, like a MudWriteBehind, 0 keeps
+    // everything
+    public void retainAfter(long seq) {
+        retainAfter = seq;
+    }
+
+    // hand what's been appended to the operating system
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (out != null)
+                out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // start a new segment and work out a snapshot as of its start, on the
+    // worker if there is one, nothing happens if the segment is empty
+    public void rotate() throws IOException {
+        final int closed;
+        syncLock.lock();
+        lock.lock();
+        try {
+            if (out == null || segmentRecords == 0)
+                return;
+            out.flush();
+            file.getChannel().force(false);
+            out.close();
+            synced = lastSeq;
+            closed = segment++;
+            open();
+        } finally {
+            lock.unlock();
+            syncLock.unlock();
+        }
+        Runnable compact = new Runnable() {
+            public void run() {
+                compact(closed);
+            }
+        };
+        lock.lock();
+        try {
+            if (worker != null) {
+                worker.execute(compact);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        compact.run();
+    }
+
+    private void compact(int closed) {
+        long start = System.nanoTime();
+        try {
+            int count = replay(dir, closed, Long.MAX_VALUE, snapshotFile(dir, closed + 1));
+            snapshots.incrementAndGet();
+            log.info("snapshot of {} documents through segment {} in {} ms", count, closed,
+                    (System.nanoTime() - start) / 1000000);
+        } catch (IOException e) {
+            log.error("snapshot of journal {} through segment {} failed", dir, closed, e);
+            return;
+        } catch (RuntimeException e) {
+            log.error("snapshot of journal {} through segment {} failed", dir, closed, e);
+            return;
+        }
+        try {
+            prune();
+        } catch (IOException e) {
+            log.error("deleting old segments from journal {} failed", dir, e);
+        }
+    }
+
+    // the newest snapshot as of the retention ago is where rebuilding the
+    // oldest world kept starts, the segments and snapshots before it are
+    // deleted, unless a segment has records after retainAfter
+    // a snapshot is on disk once written, see MudSnapshot.Writer.close, so
+    // a crash here can't leave the journal without one
+    private void prune() throws IOException {
+        long now = System.currentTimeMillis();
+        if (retention > now)
+            return;
+        long cutoff = now - retention;
+        long needed = retainAfter >>> 32;
+        int first = 0;
+        for (int snapshot : numbers(dir, SNAPSHOT_SUFFIX)) {
+            File segmentFile = segmentFile(dir, snapshot);
+            if (snapshot > needed || (segmentFile.exists() && startTime(segmentFile) > cutoff))
+                break;
+            first = snapshot;
+        }
+        int count = 0;
+        for (int segment : numbers(dir, SEGMENT_SUFFIX).headSet(first))
+            count += delete(segmentFile(dir, segment));
+        for (int snapshot : numbers(dir, SNAPSHOT_SUFFIX).headSet(first))
+            count += delete(snapshotFile(dir, snapshot));
+        if (count > 0) {
+            deleted.addAndGet(count);
+            log.info("deleted {} segments and snapshots before segment {}", count, first);
+        }
+    }
+
+    private static int delete(File file) {
+        if (file.delete())
+            return 1;
+        log.warn("can't delete {}", file);
+        return 0;
+    }
+
+    // flush every second and start a new segment, and snapshot, every period
+    public void start(long period, TimeUnit unit) {
+        lock.lock();
+        try {
+            if (worker != null)
+                throw new IllegalStateException("journal already started");
+            worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mud-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            worker.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        log.error("journal flush to {} failed", dir, e);
+                    }
+                }
+            }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            worker.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        rotate();
+                    } catch (IOException e) {
+                        log.error("journal rotation in {} failed", dir, e);
+                    }
+                }
+            }, period, period, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // finish any snapshot under way and close the segment, the next journal
+    // on dir carries on from it
+    public void close() throws IOException, InterruptedException {
+        ScheduledExecutorService stopping;
+        lock.lock();
+        try {
+            stopping = worker;
+            worker = null;
+        } finally {
+            lock.unlock();
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+            stopping.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        syncLock.lock();
+        lock.lock();
+        try {
+            if (out != null) {
+                out.flush();
+                file.getChannel().force(false);
+                out.close();
+                out = null;
+                synced = lastSeq;
+            }
+        } finally {
+            lock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    public String getStats() {
+        return String.format("records = %d, bytes = %d, segment = %d, snapshots = %d, deleted = %d",
+                records.get(), bytes.get(), segment, snapshots.get(), deleted.get());
+    }
+
+    private void open() throws IOException {
+        file = new FileOutputStream(segmentFile(dir, segment));
+        out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+        segmentRecords = 0;
+    }
+
+    private static long seq(int segment, long index) {
+        return ((long)segment << 32) | index;
+    }
+
+    // hand every record in every segment in dir with a sequence number after
+    // seq to visitor, in order
+    public static void readAfter(File dir, final long seq, final Visitor visitor) throws IOException {
+        final int first = (int)(seq >>> 32);
+        for (int segment : numbers(dir, SEGMENT_SUFFIX).tailSet(first)) {
+            read(segmentFile(dir, segment), Long.MAX_VALUE, new Visitor() {
+                public void save(long recordSeq, long time, String collection, DBObject document) throws IOException {
+                    if (recordSeq > seq)
+                        visitor.save(recordSeq, time, collection, document);
+                }
+
+                public void update(long recordSeq, long time, String collection, Object id, DBObject update) throws IOException {
+                    if (recordSeq > seq)
+                        visitor.update(recordSeq, time, collection, id, update);
+                }
+            });
+        }
+    }
+
+    // hand every record in a segment to visitor, records after until are
+    // left out, returns false if there were any
+    public static boolean read(File file, long until, Visitor visitor) throws IOException {
+        int segment = segmentNumber(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too big to map in one piece");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readHeader(buffer, file);
+            DefaultDBDecoder decoder = new DefaultDBDecoder();
+            long index = 0;
+            while (buffer.remaining() > 0) {
+                if (buffer.remaining() < RECORD_HEADER + 4) {
+                    log.warn("{} ends with a partial record", file);
+                    break;
+                }
+                long time = buffer.getLong();
+                String collection = MudSnapshot.collection(buffer.get(), file);
+                byte kind = buffer.get();
+                // bson lengths are little endian and include themselves
+                int length = buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(buffer.position());
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                if (length < 5 || length > buffer.remaining()) {
+                    log.warn("{} ends with a partial record", file);
+                    break;
+                }
+                if (time > until)
+                    return false;
+                byte[] bson = new byte[length];
+                buffer.get(bson);
+                DBObject document = decoder.decode(bson, (DBCollection)null);
+                long seq = seq(segment, index++);
+                if (kind == SAVE)
+                    visitor.save(seq, time, collection, document);
+                else if (kind == UPDATE)
+                    visitor.update(seq, time, collection, document.get("_id"), (DBObject)document.get("update"));
+                else
+                    throw new IOException("bad record kind " + kind + " in " + file);
+            }
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // when the segment was started
+    private static long startTime(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER, raf.length()));
+            return readHeader(buffer, file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long readHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC)
+            throw new IOException(file + " isn't a journal segment");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException(file + " is journal version " + version + ", expected " + VERSION);
+        return buffer.getLong();
+    }
+
+    // the world as of until, as a MudSnapshot written to out, from the
+    // journal in dir up to and including segment last
+    // starts from the latest snapshot taken before until, or from nothing
+    // if the journal has no snapshot that early
+    // returns how many documents the world has
+    public static int replay(File dir, int last, long until, File out) throws IOException {
+        SortedSet<Integer> segments = numbers(dir, SEGMENT_SUFFIX).headSet(last + 1);
+        SortedSet<Integer> snapshots = numbers(dir, SNAPSHOT_SUFFIX).headSet(last + 1);
+        int first = 0;
+        for (int snapshot : snapshots) {
+            File segmentFile = segmentFile(dir, snapshot);
+            if (!segmentFile.exists() || startTime(segmentFile) <= until)
+                first = snapshot;
+        }
+        final World world = new World();
+        if (first > 0) {
+            MudSnapshot.read(snapshotFile(dir, first), new MudSnapshot.Visitor() {
+                public void document(String collection, DBObject document) {
+                    world.save(collection, document);
+                }
+            });
+        } else if (!segments.isEmpty() && segments.first() != 1) {
+            throw new IOException("journal " + dir + " starts at segment " + segments.first() + " with no snapshot before it");
+        }
+        for (int segment : segments.tailSet(first)) {
+            if (!read(segmentFile(dir, segment), until, world))
+                break;
+        }
+        return world.write(out);
+    }
+
+    public static int replay(File dir, long until, File out) throws IOException {
+        return replay(dir, Integer.MAX_VALUE - 1, until, out);
+    }
+
+    // documents by collection and id, changed the way mongo would change them
+    private static final class World implements Visitor {
+        final Map<String, Map<Object, DBObject>> collections = new LinkedHashMap<String, Map<Object, DBObject>>();
+
+        World() {
+            for (String collection : MudSnapshot.COLLECTIONS)
+                collections.put(collection, new LinkedHashMap<Object, DBObject>());
+        }
+
+        public void save(long seq, long time, String collection, DBObject document) {
+            save(collection, document);
+        }
+
+        void save(String collection, DBObject document) {
+            collections.get(collection).put(document.get("_id"), document);
+        }
+
+        // like mongo an update of a document that isn't there does nothing
+        public void update(long seq, long time, String collection, Object id, DBObject update) {
+            DBObject document = collections.get(collection).get(id);
+            if (document != null)
+                apply(document, update);
+        }
+
+        int write(File file) throws IOException {
+            MudSnapshot.Writer writer = new MudSnapshot.Writer(file);
+            try {
+                for (Map.Entry<String, Map<Object, DBObject>> entry : collections.entrySet()) {
+                    for (DBObject document : entry.getValue().values())
+                        writer.write(entry.getKey(), document);
+                }
+            } catch (IOException e) {
+                writer.abort();
+                throw e;
+            }
+            writer.close();
+            return writer.getCount();
+        }
+    }
+
+    // the operators MudUpdate makes
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void apply(DBObject document, DBObject update) {
+        for (String operator : update.keySet()) {
+            DBObject fields = (DBObject)update.get(operator);
+            for (String path : fields.keySet()) {
+                Object value = fields.get(path);
+                if (operator.equals("$set")) {
+                    parent(document, path, true).put(last(path), value);
+                } else if (operator.equals("$unset")) {
+                    DBObject parent = parent(document, path, false);
+                    if (parent != null)
+                        parent.removeField(last(path));
+                } else if (operator.equals("$addToSet")) {
+                    DBObject parent = parent(document, path, true);
+                    List list = (List)parent.get(last(path));
+                    if (list == null) {
+                        list = new BasicDBList();
+                        parent.put(last(path), list);
+                    }
+                    for (Object each : (List)((DBObject)value).get("$each")) {
+                        if (!list.contains(each))
+                            list.add(each);
+                    }
+                } else if (operator.equals("$push")) {
+                    // only ever {$each, $sort: 1}, see MudUpdate.pushSorted
+                    DBObject parent = parent(document, path, true);
+                    List list = (List)parent.get(last(path));
+                    if (list == null) {
+                        list = new BasicDBList();
+                        parent.put(last(path), list);
+                    }
+                    list.addAll((List)((DBObject)value).get("$each"));
+                    if (((DBObject)value).containsField("$sort"))
+                        Collections.sort(list);
+                } else if (operator.equals("$pullAll")) {
+                    DBObject parent = parent(document, path, false);
+                    List list = parent != null ? (List)parent.get(last(path)) : null;
+                    if (list != null)
+                        list.removeAll((List)value);
+                } else if (operator.equals("$inc")) {
+                    DBObject parent = parent(document, path, true);
+                    Number current = (Number)parent.get(last(path));
+                    parent.put(last(path), (current == null ? 0 : current.intValue()) + ((Number)value).intValue());
+                } else if (operator.equals("$max")) {
+                    DBObject parent = parent(document, path, true);
+                    Comparable current = (Comparable)parent.get(last(path));
+                    if (current == null || current.compareTo(value) < 0)
+                        parent.put(last(path), value);
+                } else {
+                    throw new IllegalArgumentException("can't replay " + operator);
+                }
+            }
+        }
+    }
+
+    // the embedded document holding the last part of a dotted path
+    private static DBObject parent(DBObject document, String path, boolean create) {
+        int start = 0;
+        int dot;
+        while ((dot = path.indexOf('.', start)) >= 0) {
+            String name = path.substring(start, dot);
+            DBObject child = (DBObject)document.get(name);
+            if (child == null) {
+                if (!create)
+                    return null;
+                child = new BasicDBObject();
+                document.put(name, child);
+            }
+            document = child;
+            start = dot + 1;
+        }
+        return document;
+    }
+
+    private static String last(String path) {
+        return path.substring(path.lastIndexOf('.') + 1);
+    }
+
+    private static File segmentFile(File dir, int segment) {
+        return new File(dir, String.format("%08d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static File snapshotFile(File dir, int segment) {
+        return new File(dir, String.format("%08d%s", segment, SNAPSHOT_SUFFIX));
+    }
+
+    // the segment a file is, 0 if it isn't named like one
+    private static int segmentNumber(File file) {
+        String name = file.getName();
+        try {
+            if (name.endsWith(SEGMENT_SUFFIX) && name.length() == 8 + SEGMENT_SUFFIX.length())
+                return Integer.parseInt(name.substring(0, 8));
+        } catch (NumberFormatException e) {
+            // not one of ours
+        }
+        return 0;
+    }
+
+    private static SortedSet<Integer> numbers(File dir, String suffix) {
+        SortedSet<Integer> numbers = new TreeSet<Integer>();
+        String[] names = dir.list();
+        if (names == null)
+            return numbers;
+        for (String name : names) {
+            if (name.endsWith(suffix) && name.length() == 8 + suffix.length()) {
+                try {
+                    numbers.add(Integer.parseInt(name.substring(0, 8)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return numbers;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || (args[0].equals("replay") && args.length < 3)) {
+            System.err.println("java mud.MudJournal replay dir file [time, e.g. 2016-05-01T12:00:00Z] | print segment");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        if (args[0].equals("print")) {
+            read(new File(args[1]), Long.MAX_VALUE, new Visitor() {
+                public void save(long seq, long time, String collection, DBObject document) {
+                    System.out.println(Instant.ofEpochMilli(time) + " save " + collection + " " + JSON.serialize(document));
+                }
+
+                public void update(long seq, long time, String collection, Object id, DBObject update) {
+                    System.out.println(Instant.ofEpochMilli(time) + " update " + collection + " " + id + " " + JSON.serialize(update));
+                }
+            });
+        } else if (args[0].equals("replay")) {
+            long until = args.length > 3 ? Instant.parse(args[3]).toEpochMilli() : Long.MAX_VALUE;
+            int count = replay(new File(args[1]), until, new File(args[2]));
+            System.err.println(String.format("%d documents in %.1f ms", count, (System.nanoTime() - start) / 1e6));
+        } else {
+            throw new IllegalArgumentException("unknown command " + args[0]);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,222 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBObject;
+
+import org.mongodb.morphia.Morphia;
+
+// a world store that appends every write to a MudJournal as well, so the
+// world can be rebuilt from the journal, as it is now or as it was at any
+// time since the journal started
+// changes are appended when the write is prepared, holding the entity's
+// monitor, so the journal has each room's changes in the order they were
+// made, and they're appended before they reach the store
+// on a MudMemoryStore the journal is all that's written anywhere, one
+// sequential append per change in place of rewriting documents
+// with a MudWriteBehind the store isn't written here at all: a write is done
+// once the journal has synced it and the write behind applies it to mongo
+// later, entities with writes still to apply are read from the write behind,
+// each read a copy of its own made from the document the latest write left
+public class MudJournalStore implements MudWorldStore {
+    private final MudWorldStore store;
+    private final MudJournal journal;
+    private final Morphia morphia;
+    private final MudWriteBehind writeBehind;   // null writes to the store
+
+    public MudJournalStore(MudWorldStore store, MudJournal journal, Morphia morphia) {
+        this(store, null, morphia, journal);
+    }
+
+    // writes go through writeBehind, on its journal
+    public MudJournalStore(MudWorldStore store, MudWriteBehind writeBehind, Morphia morphia) {
+        this(store, writeBehind, morphia, writeBehind.getJournal());
+    }
+
+    private MudJournalStore(MudWorldStore store, MudWriteBehind writeBehind, Morphia morphia, MudJournal journal) {
+        this.store = store;
+        this.journal = journal;
+        this.morphia = morphia;
+        this.writeBehind = writeBehind;
+    }
+
+    public MudWorldStore getStore() {
+        return store;
+    }
+
+    public MudJournal getJournal() {
+        return journal;
+    }
+
+    public MudPlayer getPlayer(String id) {
+        MudPlayer pending = getPending(MudPlayer.class, id);
+        return pending != null ? pending : store.getPlayer(id);
+    }
+
+    public MudRoom getRoom(ObjectId id) {
+        MudRoom pending = getPending(MudRoom.class, id);
+        return pending != null ? pending : store.getRoom(id);
+    }
+
+    public MudLock getLock(ObjectId id) {
+        MudLock pending = getPending(MudLock.class, id);
+        return pending != null ? pending : store.getLock(id);
+    }
+
+    public List<MudPlayer> getPlayers(Collection<String> ids) {
+        if (writeBehind == null)
+            return store.getPlayers(ids);
+        List<MudPlayer> found = new ArrayList<MudPlayer>(ids.size());
+        List<String> missing = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            MudPlayer pending = getPending(MudPlayer.class, id);
+            if (pending != null)
+                found.add(pending);
+            else
+                missing.add(id);
+        }
+        if (!missing.isEmpty())
+            found.addAll(store.getPlayers(missing));
+        return found;
+    }
+
+    public List<MudRoom> getRooms(Collection<ObjectId> ids) {
+        if (writeBehind == null)
+            return store.getRooms(ids);
+        List<MudRoom> found = new ArrayList<MudRoom>(ids.size());
+        List<ObjectId> missing = new ArrayList<ObjectId>(ids.size());
+        for (ObjectId id : ids) {
+            MudRoom pending = getPending(MudRoom.class, id);
+            if (pending != null)
+                found.add(pending);
+            else
+                missing.add(id);
+        }
+        if (!missing.isEmpty())
+            found.addAll(store.getRooms(missing));
+        return found;
+    }
+
+    // only written whole, and registered by the store as they're written
+    public MudItemPrototypes getPrototypes() {
+        return store.getPrototypes();
+    }
+
+    private <T> T getPending(Class<T> type, Object id) {
+        DBObject document = writeBehind != null ? writeBehind.getPending(id) : null;
+        if (document == null)
+            return null;
+        T entity = morphia.fromDBObject(type, document);
+        store.getPrototypes().bind(entity);
+        return entity;
+    }
+
+    // an entity without an id is given one by the store, so it's journaled
+    // after it's saved
+    public void save(Object entity) {
+        if (morphia.getMapper().getId(entity) != null) {
+            written(journalSave(entity));
+            if (writeBehind == null)
+                store.save(entity);
+        } else {
+            store.save(entity);
+            journalSave(entity);
+        }
+    }
+
+    // the ids are already set
+    public void saveAll(List<?> entities) {
+        long seq = 0;
+        for (Object entity : entities)
+            seq = journalSave(entity);
+        written(seq);
+        if (writeBehind == null)
+            store.saveAll(entities);
+    }
+
+    public void update(Object entity, Object id, MudUpdate changes) {
+        written(journalUpdate(entity, id, changes));
+        if (writeBehind == null)
+            store.update(entity, id, changes);
+    }
+
+    // new entities aren't shared, so saving one can't race anything else
+    public Runnable prepareSave(final Object entity) {
+        if (morphia.getMapper().getId(entity) == null) {
+            return new Runnable() {
+                public void run() {
+                    save(entity);
+                }
+            };
+        }
+        long seq = journalSave(entity);
+        return writeBehind != null ? synced(seq) : store.prepareSave(entity);
+    }
+
+    public Runnable prepareUpdate(Object entity, Object id, MudUpdate changes) {
+        long seq = journalUpdate(entity, id, changes);
+        return writeBehind != null ? synced(seq) : store.prepareUpdate(entity, id, changes);
+    }
+
+    // the entities aren't at hand, so reads don't see these until they're
+    // applied, they're only $inc and $max
+    public void updateAll(Class<?> type, Map<Object, MudUpdate> updates) {
+        String collection = collection(type);
+        long seq = 0;
+        for (Map.Entry<Object, MudUpdate> entry : updates.entrySet()) {
+            DBObject update = entry.getValue().toDBObject(morphia);
+            if (writeBehind != null)
+                seq = writeBehind.update(collection, entry.getKey(), update, null);
+            else
+                journal.update(collection, entry.getKey(), update);
+        }
+        if (writeBehind != null)
+            journal.sync(seq);
+        else
+            store.updateAll(type, updates);
+    }
+
+    // returns the record's sequence number
+    // call holding the entity's monitor, or for a player, from the request
+    // it belongs to, so the document reads get is the entity as written
+    private long journalSave(Object entity) {
+        String collection = collection(entity.getClass());
+        DBObject document = morphia.toDBObject(entity);
+        if (writeBehind != null)
+            return writeBehind.save(collection, document.get("_id"), document, document);
+        return journal.save(collection, document);
+    }
+
+    private long journalUpdate(Object entity, Object id, MudUpdate changes) {
+        String collection = collection(entity.getClass());
+        DBObject update = changes.toDBObject(morphia);
+        if (writeBehind != null)
+            return writeBehind.update(collection, id, update, morphia.toDBObject(entity));
+        return journal.update(collection, id, update);
+    }
+
+    // with a write behind the journal is the only thing written before
+    // answering, so it has to be on disk
+    private void written(long seq) {
+        if (writeBehind != null)
+            journal.sync(seq);
+    }
+
+    // the write is done once the journal has it on disk
+    private Runnable synced(final long seq) {
+        return new Runnable() {
+            public void run() {
+                journal.sync(seq);
+            }
+        };
+    }
+
+    private String collection(Class<?> type) {
+        return morphia.getMapper().getMappedClass(type).getCollectionName();
+    }
+}
@@ -0,0 +1,382 @@
+package mud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletRequest;
+import com.amazon.speech.speechlet.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.List;
+import java.util.Random;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// drives one MudSpeechlet with many simulated players at once, each launching
+// and then saying a scripted mix of things drawn from the sample utterances,
+// and reports throughput, latency and store operations
+// runs on a MudMemoryStore holding the Test world unless told to use the
+// local mongo, which needs ./test run first, or booted from a MudSnapshot:
+// java mud.MudLoadGenerator [--players 100] [--requests 20] [--mix look=40,go=20,get=20,drop=20]
+//                           [--seed 1] [--mongo [--write-behind] | --snapshot file]
+//                           [--journal dir]
+public class MudLoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(MudLoadGenerator.class);
+
+    private static final String SPEECH_ASSETS = "speechAssets";
+    private static final Pattern SLOT_PATTERN = Pattern.compile("\\{(\\w+)\\}");
+
+    private final MudSpeechlet speechlet;
+    private final Map<String, List<Utterance>> utterances;
+    private final String[] mixIntents;
+    private final int[] mixWeights;
+    private final int mixTotal;
+    private final int requests;
+    private final long seed;
+    private final String run;
+    private long elapsedNanos;
+
+    // one line from SampleUtterances.txt with values picked for its slots
+    private static final class Utterance {
+        final String intentName;
+        final List<String> slotNames;
+        final List<List<String>> slotValues;
+
+        Utterance(String intentName, List<String> slotNames, List<List<String>> slotValues) {
+            this.intentName = intentName;
+            this.slotNames = slotNames;
+            this.slotValues = slotValues;
+        }
+
+        IntentRequest toRequest(Random random, String requestId) {
+            Map<String, Slot> slots = new HashMap<String, Slot>();
+            for (int i = 0; i < slotNames.size(); i++) {
+                List<String> values = slotValues.get(i);
+                String name = slotNames.get(i);
+                slots.put(name, Slot.builder().withName(name).withValue(values.get(random.nextInt(values.size()))).build());
+            }
+            Intent intent = Intent.builder().withName(intentName).withSlots(slots).build();
+            return IntentRequest.builder().withRequestId(requestId).withIntent(intent).build();
+        }
+    }
+
+    // what one simulated player saw
+    private static final class PlayerResult {
+        final long[] latencies;
+        int errors;
+
+        PlayerResult(int requests) {
+            latencies = new long[requests];
+        }
+    }
+
+    private MudLoadGenerator(MudSpeechlet speechlet, Map<String, List<Utterance>> utterances,
+            Map<String, Integer> mix, int requests, long seed) {
+        this.speechlet = speechlet;
+        this.utterances = utterances;
+        this.requests = requests;
+        this.seed = seed;
+        run = Long.toString(System.currentTimeMillis(), 36);
+        mixIntents = new String[mix.size()];
+        mixWeights = new int[mix.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            if (!utterances.containsKey(entry.getKey()))
+                throw new IllegalArgumentException("no utterances for " + entry.getKey());
+            mixIntents[i] = entry.getKey();
+            total += entry.getValue();
+            mixWeights[i++] = total;
+        }
+        mixTotal = total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int players = 100;
+        int requests = 20;
+        String mix = "look=40,go=20,get=20,drop=20";
+        long seed = 1;
+        boolean mongo = false;
+        File snapshot = null;
+        File journalDir = null;
+        boolean writeBehind = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--players"))
+                players = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--requests"))
+                requests = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--mix"))
+                mix = args[++i];
+            else if (args[i].equals("--seed"))
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--mongo"))
+                mongo = true;
+            else if (args[i].equals("--snapshot"))
+                snapshot = new File(args[++i]);
+            else if (args[i].equals("--journal"))
+                journalDir = new File(args[++i]);
+            else if (args[i].equals("--write-behind"))
+                writeBehind = true;
+            else
+                throw new IllegalArgumentException("unknown argument " + args[i]);
+        }
+
+        if (writeBehind && (!mongo || journalDir == null))
+            throw new IllegalArgumentException("--write-behind needs --mongo and --journal");
+        if (writeBehind)
+            System.setProperty("mud.writeBehind", "true");
+        MudJournal journal = null;
+        if (journalDir != null && mongo) {
+            // the default engine opens it
+            System.setProperty("mud.journal", journalDir.getPath());
+        } else if (journalDir != null) {
+            journal = new MudJournal(journalDir);
+            journal.start(MudJournal.DEFAULT_SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+        }
+        MudEngine engine;
+        MudMemoryStore memory = null;
+        if (mongo) {
+            engine = MudEngine.getDefault();
+        } else if (snapshot != null) {
+            long start = System.nanoTime();
+            memory = MudMemoryStore.load(MudEngine.getMorphia(), snapshot);
+            if (journal != null)
+                journal.seed(snapshot);
+            engine = new MudEngine(memory, journal);
+            System.out.println(String.format("booted from %s in %.1f ms", snapshot, (System.nanoTime() - start) / 1e6));
+        } else {
+            memory = new MudMemoryStore(MudEngine.getMorphia());
+            engine = new MudEngine(memory, journal);
+            // through the engine's store so a journal has the world too
+            Test.createWorld(engine.getStore());
+        }
+        long gets = memory != null ? memory.getGets() : 0;
+        long saves = memory != null ? memory.getSaves() : 0;
+        long updates = memory != null ? memory.getUpdates() : 0;
+
+        MudLoadGenerator generator = new MudLoadGenerator(new MudSpeechlet(engine),
+                loadUtterances(new File(SPEECH_ASSETS)), parseMix(mix), requests, seed);
+        List<PlayerResult> results = generator.run(players);
+        // the buffered activity counts as part of the run
+        engine.close();
+
+        int errors = 0;
+        int count = 0;
+        for (PlayerResult result : results) {
+            errors += result.errors;
+            count += result.latencies.length;
+        }
+        long[] latencies = new long[count];
+        int n = 0;
+        for (PlayerResult result : results) {
+            System.arraycopy(result.latencies, 0, latencies, n, result.latencies.length);
+            n += result.latencies.length;
+        }
+        Arrays.sort(latencies);
+        long elapsedNanos = generator.elapsedNanos;
+
+        System.out.println(String.format("players %d, requests %d, errors %d, elapsed %.1f ms",
+                players, count, errors, elapsedNanos / 1e6));
+        System.out.println(String.format("throughput %.1f requests/s", count / (elapsedNanos / 1e9)));
+        System.out.println(String.format("latency p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                (count > 0 ? latencies[count - 1] : 0) / 1e6));
+        if (memory != null)
+            System.out.println(String.format("store gets %d (%.2f/request), saves %d (%.2f/request), updates %d (%.2f/request)",
+                    memory.getGets() - gets, (memory.getGets() - gets) / (double)count,
+                    memory.getSaves() - saves, (memory.getSaves() - saves) / (double)count,
+                    memory.getUpdates() - updates, (memory.getUpdates() - updates) / (double)count));
+        else
+            System.out.println("store operations are only counted on the in memory store");
+        System.out.println("cache " + engine.getCache().getStats());
+        System.out.println("engine " + engine.getStats());
+        System.out.println("activity " + engine.getActivity().getStats());
+        System.out.println("mailboxes " + engine.getMailboxes().getStats());
+        if (engine.getJournal() != null)
+            System.out.println("journal " + engine.getJournal().getStats());
+        if (engine.getWriteBehind() != null)
+            System.out.println("write behind " + engine.getWriteBehind().getStats());
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    private List<PlayerResult> run(int players) throws Exception {
+        ExecutorService executor = StressTest.newExecutor();
+        List<Future<PlayerResult>> futures = new ArrayList<Future<PlayerResult>>(players);
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<PlayerResult>() {
+                public PlayerResult call() {
+                    return runPlayer(n);
+                }
+            }));
+        }
+        List<PlayerResult> results = new ArrayList<PlayerResult>(players);
+        for (Future<PlayerResult> future : futures)
+            results.add(future.get());
+        elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+        return results;
+    }
+
+    // a launch and then the scripted requests, one after the other like a
+    // real player would, the launch is counted as the first request
+    private PlayerResult runPlayer(int n) {
+        Random random = new Random(seed * 31 + n);
+        Session session = Session.builder()
+                .withSessionId("load-" + run + "-" + n)
+                .withUser(User.builder().withUserId("load-" + run + "-" + n).build())
+                .build();
+        PlayerResult result = new PlayerResult(requests + 1);
+        for (int i = 0; i <= requests; i++) {
+            SpeechletRequest request;
+            if (i == 0) {
+                request = LaunchRequest.builder().withRequestId("launch-" + n).build();
+            } else {
+                List<Utterance> choices = utterances.get(pickIntent(random));
+                request = choices.get(random.nextInt(choices.size())).toRequest(random, "request-" + n + "-" + i);
+            }
+            long start = System.nanoTime();
+            try {
+                if (request instanceof LaunchRequest)
+                    speechlet.onLaunch((LaunchRequest)request, session);
+                else
+                    speechlet.onIntent((IntentRequest)request, session);
+            } catch (Exception e) {
+                log.error("player {} request {} failed", n, i, e);
+                result.errors++;
+            }
+            result.latencies[i] = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    private String pickIntent(Random random) {
+        int pick = random.nextInt(mixTotal);
+        for (int i = 0; i < mixWeights.length; i++)
+            if (pick < mixWeights[i])
+                return mixIntents[i];
+        return mixIntents[mixIntents.length - 1];
+    }
+
+    // look=40,go=20 -> LookIntent 40, GoIntent 20, full intent names work too
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            String name = pair[0].trim();
+            if (!name.endsWith("Intent"))
+                name = Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Intent";
+            weights.put(name, Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    // every sample utterance whose slots all have values, slot values come
+    // from the custom slot type lists named in the intent schema
+    // intents the schema has but no utterances for get "<intent> {slot}"
+    private static Map<String, List<Utterance>> loadUtterances(File speechAssets) throws IOException {
+        Map<String, Map<String, String>> slotTypes = new HashMap<String, Map<String, String>>();
+        String schema = new String(Files.readAllBytes(new File(speechAssets, "IntentSchema.json").toPath()), StandardCharsets.UTF_8);
+        for (Object intentObject : (List<?>)((DBObject)JSON.parse(schema)).get("intents")) {
+            DBObject intent = (DBObject)intentObject;
+            Map<String, String> types = new LinkedHashMap<String, String>();
+            Object slots = intent.get("slots");
+            if (slots != null) {
+                for (Object slotObject : (List<?>)slots) {
+                    DBObject slot = (DBObject)slotObject;
+                    types.put((String)slot.get("name"), (String)slot.get("type"));
+                }
+            }
+            slotTypes.put((String)intent.get("intent"), types);
+        }
+
+        Map<String, List<String>> typeValues = new HashMap<String, List<String>>();
+        Map<String, List<Utterance>> utterances = new HashMap<String, List<Utterance>>();
+        for (String line : Files.readAllLines(new File(speechAssets, "SampleUtterances.txt").toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            int space = line.indexOf(' ');
+            if (space < 0)
+                continue;
+            addUtterance(speechAssets, slotTypes, typeValues, utterances, line.substring(0, space), line.substring(space + 1));
+        }
+        for (Map.Entry<String, Map<String, String>> entry : slotTypes.entrySet()) {
+            if (utterances.containsKey(entry.getKey()))
+                continue;
+            String sample = entry.getKey();
+            for (String slotName : entry.getValue().keySet())
+                sample += " {" + slotName + "}";
+            addUtterance(speechAssets, slotTypes, typeValues, utterances, entry.getKey(), sample);
+        }
+        return utterances;
+    }
+
+    private static void addUtterance(File speechAssets, Map<String, Map<String, String>> slotTypes,
+            Map<String, List<String>> typeValues, Map<String, List<Utterance>> utterances,
+            String intentName, String sample) throws IOException {
+        Map<String, String> types = slotTypes.get(intentName);
+        if (types == null)
+            return;
+        List<String> slotNames = new ArrayList<String>();
+        List<List<String>> slotValues = new ArrayList<List<String>>();
+        Matcher matcher = SLOT_PATTERN.matcher(sample);
+        while (matcher.find()) {
+            String type = types.get(matcher.group(1));
+            List<String> values = type == null ? null : getTypeValues(speechAssets, typeValues, type);
+            if (values == null || values.isEmpty())
+                return;
+            slotNames.add(matcher.group(1));
+            slotValues.add(values);
+        }
+        List<Utterance> list = utterances.get(intentName);
+        if (list == null) {
+            list = new ArrayList<Utterance>();
+            utterances.put(intentName, list);
+        }
+        list.add(new Utterance(intentName, slotNames, slotValues));
+    }
+
+    // null if there's no list for the type
+    private static List<String> getTypeValues(File speechAssets, Map<String, List<String>> typeValues, String type)
+            throws IOException {
+        if (typeValues.containsKey(type))
+            return typeValues.get(type);
+        File file = new File(new File(speechAssets, "customSlotTypes"), type + ".txt");
+        List<String> values = null;
+        if (file.exists()) {
+            values = new ArrayList<String>();
+            for (String value : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+                if (!value.trim().isEmpty())
+                    values.add(value.trim());
+        }
+        typeValues.put(type, values);
+        return values;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
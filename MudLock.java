@@ -4,6 +4,7 @@ import org.mongodb.morphia.annotations.Id;
 import org.mongodb.morphia.annotations.Entity;
 import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Reference;
+import org.mongodb.morphia.annotations.Transient;
 
 import org.bson.types.ObjectId;
 
@@ -20,6 +21,8 @@ public class MudLock {
     public final MudTags tags;                // functionality tags
     private Date lastUsed;
     private int timesUsed;
+    @Transient
+    private final MudUpdate changes = new MudUpdate(); // what changed since the last write
 
     public MudLock() {
         lockedMessage = "That exit is locked.";
@@ -28,6 +31,14 @@ public class MudLock {
         tags = new MudTags();
     }
 
+    public ObjectId getId() {
+        return id;
+    }
+
+    public void setId(ObjectId ID) {
+        id = ID;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -52,19 +63,41 @@ public class MudLock {
         return !visibility.getIsRestrictedTo(player);
     }
 
+    // give a player access by id, nothing is loaded, call holding the lock's
+    // monitor, returns whether anything changed
+    public boolean grantAccess(String playerId) {
+        if (!access.addToAccessList(playerId))
+            return false;
+        changes.pushSorted("access.accessList", playerId);
+        return true;
+    }
+
+    public boolean revokeAccess(String playerId) {
+        if (!access.removeFromAccessList(playerId))
+            return false;
+        changes.pull("access.accessList", playerId);
+        return true;
+    }
+
     public Date getLastUsed() {
         return lastUsed;
     }
 
     public void updateLastUsed() {
-        lastUsed = new Date();
+        lastUsed = MudActivity.now();
+        changes.max("lastUsed", lastUsed);
     }
 
     public void incrementTimesUsed() {
         timesUsed++;
+        changes.inc("timesUsed", 1);
     }
 
     public int getTimesUsed() {
         return timesUsed;
     }
+
+    public MudUpdate getChanges() {
+        return changes;
+    }
 }
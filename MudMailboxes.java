@@ -0,0 +1,145 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a mailbox per room (or lock): work handed to a room's mailbox runs one task
+// at a time in the order it arrived, on a shared pool of threads
+// the unit of work builds each room's write and submits it holding the
+// room's monitor, so the writes reach the store in the order they were
+// built, and the round trip itself runs without the monitor, so other
+// requests can carry on changing the room meanwhile
+// the request still waits for its own writes before it answers, what runs
+// in parallel is the writes of one flush to different rooms and locks
+// a mailbox only exists while it has work, so idle rooms cost nothing
+public final class MudMailboxes {
+    public static final int DEFAULT_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    // tasks run before a busy mailbox goes to the back of the pool's queue
+    private static final int BATCH = 16;
+
+    private final ExecutorService executor;
+    private final Map<Object, Mailbox> mailboxes;   // guarded by itself
+    private boolean isShutdown;                     // guarded by mailboxes
+
+    private final AtomicLong tasks;
+    private final AtomicInteger maxQueued;
+
+    private final class Mailbox implements Runnable {
+        final Object key;
+        final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+
+        Mailbox(Object key) {
+            this.key = key;
+        }
+
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task;
+                synchronized (mailboxes) {
+                    task = queue.poll();
+                    if (task == null) {
+                        mailboxes.remove(key);
+                        return;
+                    }
+                }
+                task.run();
+                tasks.incrementAndGet();
+            }
+            execute(this);
+        }
+    }
+
+    public MudMailboxes() {
+        this(DEFAULT_THREADS);
+    }
+
+    public MudMailboxes(int threads) {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mud-mailbox-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mailboxes = new HashMap<Object, Mailbox>();
+        tasks = new AtomicLong();
+        maxQueued = new AtomicInteger();
+    }
+
+    // run task after everything already sent to key's mailbox, the future
+    // says when it's done and rethrows whatever it threw
+    // throws RejectedExecutionException once shut down
+    public Future<?> submit(Object key, Runnable task) {
+        FutureTask<Void> future = new FutureTask<Void>(task, null);
+        Mailbox mailbox;
+        boolean start = false;
+        int queued;
+        synchronized (mailboxes) {
+            if (isShutdown)
+                throw new RejectedExecutionException("mailboxes are shut down");
+            mailbox = mailboxes.get(key);
+            if (mailbox == null) {
+                mailbox = new Mailbox(key);
+                mailboxes.put(key, mailbox);
+                start = true;
+            }
+            mailbox.queue.add(future);
+            queued = mailbox.queue.size();
+        }
+        if (queued > maxQueued.get())
+            maxQueued.set(queued);
+        if (start)
+            execute(mailbox);
+        return future;
+    }
+
+    // a mailbox the pool won't take, because it was shut down after the
+    // mailbox got work, is dropped with its tasks cancelled, so nobody
+    // waits on them and the next task for the key gets a new mailbox
+    private void execute(Mailbox mailbox) {
+        try {
+            executor.execute(mailbox);
+        } catch (RejectedExecutionException e) {
+            List<Runnable> dropped;
+            synchronized (mailboxes) {
+                if (mailboxes.get(mailbox.key) == mailbox)
+                    mailboxes.remove(mailbox.key);
+                dropped = new ArrayList<Runnable>(mailbox.queue);
+                mailbox.queue.clear();
+            }
+            for (Runnable task : dropped)
+                ((Future<?>)task).cancel(false);
+        }
+    }
+
+    // new tasks are turned down, a mailbox already running finishes its
+    // batch and the rest of its tasks are cancelled
+    public void shutdown() {
+        synchronized (mailboxes) {
+            isShutdown = true;
+        }
+        executor.shutdown();
+    }
+
+    public String getStats() {
+        int active;
+        synchronized (mailboxes) {
+            active = mailboxes.size();
+        }
+        return String.format("tasks = %d, active mailboxes = %d, most queued = %d", tasks.get(), active, maxQueued.get());
+    }
+}
@@ -1,15 +1,10 @@
 package mud;
 
-import com.mongodb.MongoClient;
-import org.mongodb.morphia.Morphia;
-import org.mongodb.morphia.Datastore;
-
 import org.bson.types.ObjectId;
 
 import java.util.Map;
 import java.util.List;
-import java.util.Random;
-import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +22,8 @@ import com.amazon.speech.ui.SimpleCard;
 
 // the MudManager essentially is the glue between the data access objects / mongodb
 // and the alexa skill handler
+// a new one is created for every request and holds that request's player and
+// output, everything shared between requests lives in the MudEngine
 public class MudManager {
     private static final Logger log = LoggerFactory.getLogger(MudManager.class);
 
@@ -38,9 +35,14 @@ public class MudManager {
     private static final String SLOT_OBJECTSPEC = "ObjectSpec";
     private static final String SLOT_ONOBJECTSPEC = "OnObjectSpec";
 
-    private static final String MONGO_DATABASE = "mud";
+    // anything visible that's carried, nearby or an exit
+    private static final MudItemQuery LOOK_QUERY = new MudItemQuery.Builder()
+            .isVisible(true).includePlayer().includeRoom().includeExits().includeNested().build();
+    // a visible container that's carried or nearby, or in one that is
+    private static final MudItemQuery CONTAINER_QUERY = new MudItemQuery.Builder()
+            .isContainer(true).isVisible(true).includePlayer().includeRoom().includeNested().build();
 
-    private static <T> T randomFrom(T... items) { return items[new Random().nextInt(items.length)]; }
+    private static <T> T randomFrom(T... items) { return items[ThreadLocalRandom.current().nextInt(items.length)]; }
     private static final String[] WHAT_NEXT_Q_LIST = {
             "<p>What do you want to do now?</p>",
             "<p>Tell me what you want to do next?</p>",
@@ -75,56 +77,54 @@ public class MudManager {
             "<p>Kay Kay Buh Bye.</p>"
         };
 
-    private final Morphia morphia;
-    private final Datastore datastore;
+    private final MudEngine engine;
+    private final MudUnitOfWork unitOfWork;
 
     private MudPlayer player;
 
-    private String speechOutput;
-    private String repromptSpeech;
-
-    public MudManager(final MongoClient mongoClient, Session session) {
-        morphia = new Morphia();
-        morphia.map(MudPlayer.class).map(MudRoom.class).map(MudItem.class).map(MudExit.class)
-                .map(MudLock.class).map(MudAccessControl.class);
-        datastore = morphia.createDatastore(new MongoClient(), MONGO_DATABASE);
-        datastore.ensureIndexes();
+    private final MudSsmlBuilder speechOutput;
+    private final MudSsmlBuilder repromptSpeech;
 
-        // ready to go
+    public MudManager(final MudEngine engine, Session session) {
+        this.engine = engine;
+        unitOfWork = engine.newUnitOfWork();
+        speechOutput = new MudSsmlBuilder();
+        repromptSpeech = new MudSsmlBuilder();
     }
 
     public void joinSession(Session session) {
         String userId = session.getUser().getUserId();
         String sessionId = session.getSessionId();
-        speechOutput = "";
-        repromptSpeech = "";
 
         log.info("joinSession called for userId = {}, sessionId = {}", userId, sessionId);
-        // we are up to date with the current session information
-        if (player != null && player.getId().equals(userId) && player.getSessionId().equals(sessionId)) {
-            // instrumentation that might be expensive
-            player.incrementInteractions();
-            datastore.save(player);
-            return;
-        }
-        log.info("no existing session found, creating a new one for userId = {}, sessionId = {}", userId, sessionId);
-        // load the player and populate the interaction
-        player = MudManagerHelper.getPlayer(datastore, userId);
+        // load the player and populate the interaction, getPlayer takes care
+        // of the interaction count so a request in an existing session is done
+        player = MudManagerHelper.getPlayer(unitOfWork, userId);
         if (player.getIsNew()  == true) {
-    	    speechOutput += "<p><s>Ahhh <break strength='strong'/> I always love a new player.</s>  <s>Welcome.</s>  <s>For instructions, say <break strength='strong'/>'help me'.</s></p>";
+    	    speechOutput.append("<p><s>Ahhh <break strength='strong'/> I always love a new player.</s>  <s>Welcome.</s>  <s>For instructions, say <break strength='strong'/>'help me'.</s></p>");
             player.setIsNew(false);
             player.setSessionId(sessionId);
             player.incrementSessions();
-            datastore.save(player);
+            unitOfWork.markDirty(player);
         }
         if (!player.getSessionId().equals(sessionId)) {
-            speechOutput += "<p>Welcome back to the Mud.</p>";
+            speechOutput.append("<p>Welcome back to the Mud.</p>");
             player.setSessionId(sessionId);
             player.incrementSessions();
-            datastore.save(player);
+            unitOfWork.markDirty(player);
         }
     }
 
+    // write out everything the current request changed, called once the
+    // response has been built, and note what the request cost in documents
+    public int flush() {
+        int loaded = unitOfWork.getDocumentsLoaded();
+        int written = unitOfWork.flush();
+        log.debug("request loaded {} documents, wrote {}", loaded, written);
+        engine.recordRequest(loaded, written);
+        return written;
+    }
+
     /**
      * Creates and returns response for Launch request.
      *
@@ -135,43 +135,51 @@ public class MudManager {
      * @return response for launch request
      */
     public SpeechletResponse getLaunchResponse(LaunchRequest request, Session session) {
-        speechOutput += getRoomFullDescriptionSSML();
-        speechOutput += "<p>You have " + player.getInventorySize() + " items in your inventory</p>";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append(getRoomFullDescriptionSSML());
+        speechOutput.append("<p>You have ").append(player.getInventorySize()).append(" items in your inventory</p>");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
+    // the description only changes when the room does, so it's rendered once
+    // per room version and every look until the next change reuses the text
     private String getRoomFullDescriptionSSML() {
-        String ssml = "";
         MudRoom room = player.getRoom();
-        ssml += "<p>" + room.getDescription() + "</p>";
-        String itemList = "";
-        Iterator it = room.getItems().entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry)it.next();
-            itemList += (String)pair.getKey() + ",";
+        // the room is shared with other requests
+        synchronized (room) {
+            String ssml = room.getDescriptionSSML();
+            if (ssml == null) {
+                ssml = getRoomFullDescriptionSSML(room);
+                room.setDescriptionSSML(ssml, room.getVersion());
+            }
+            return ssml;
         }
-        if (itemList.length() > 1) {
-            ssml += "<p>Nearby you see:" + itemList + "</p>";
+    }
+
+    // package private for the benchmarks
+    static String getRoomFullDescriptionSSML(MudRoom room) {
+        MudSsmlBuilder ssml = new MudSsmlBuilder();
+        ssml.paragraph(room.getDescription());
+        List<String> names = room.getItems().getNames();
+        if (!names.isEmpty()) {
+            ssml.append("<p>Nearby you see:");
+            for (String name : names)
+                ssml.append(name).append(',');
+            ssml.append("</p>");
         }
-        int playersNearby = room.getPlayers().size();
+        int playersNearby = room.getPlayerCount();
         if (playersNearby > 1)
-            ssml += String.format("<p>There are %d other players here.</p>", playersNearby - 1);
-        String exitList = "";
-        it = room.getExits().entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry)it.next();
-            exitList += (String)pair.getKey() + ",";
-        } 
-        if (exitList.length() > 0) {
-            if (exitList.length() > 1) {
-                ssml += String.format("<p>You can go %d places: ", room.getExits().size());
-                ssml += exitList + "</p>";
-            }
+            ssml.append("<p>There are ").append(playersNearby - 1).append(" other players here.</p>");
+        Map<String, MudExit> exits = room.getExits();
+        if (!exits.isEmpty()) {
+            ssml.append("<p>You can go ").append(exits.size()).append(" places: ");
+            for (String exitName : exits.keySet())
+                ssml.append(exitName).append(',');
+            ssml.append("</p>");
         }
-        return ssml;
+        return ssml.toString();
     }
 
     public SpeechletResponse getLookIntentResponse(Intent intent, Session session) {
@@ -180,35 +188,35 @@ public class MudManager {
             String objectSpec = objectSpecSlot.getValue();
             // search items and exits on player and room
             MudItemExitSearchResult searchResult = 
-                    MudManagerHelper.playerItemExitSearch(player, objectSpec,
-                            null, null, true, null,
-                            null, null, null, true,
-                            true, true, false);
+                    MudManagerHelper.playerItemExitSearch(player, objectSpec, LOOK_QUERY);
             // report search results
             if (searchResult.found == 0) {
-                speechOutput += String.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
+                speechOutput.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
             } else if (searchResult.found == 1) {
-                if (searchResult.playerItems.size() > 0)
-                    speechOutput += "<p>" + searchResult.playerItems.get(0).getDescription() + "</p>";
-                else if (searchResult.roomItems.size() > 0)
-                    speechOutput += "<p>" + searchResult.roomItems.get(0).getDescription() + "</p>";
-                else
-                    speechOutput += "<p>" + searchResult.roomExits.get(0).getDescription() + "</p>";
+                MudItem found = searchResult.playerItems.size() > 0 ? searchResult.playerItems.get(0)
+                        : searchResult.roomItems.size() > 0 ? searchResult.roomItems.get(0) : null;
+                if (found != null) {
+                    speechOutput.paragraph(found.getDescription());
+                    if (found.getContainer() != null)
+                        speechOutput.format("<p>It's in the %s.</p>", found.getContainer().getShortName());
+                } else {
+                    speechOutput.paragraph(searchResult.roomExits.get(0).getDescription());
+                }
             } else {
                 // report how many found in each set, not too helpful right now :(
-                speechOutput += String.format("<p><s>OK, I found %d things called '%s'.</s>", searchResult.found, objectSpec);
+                speechOutput.format("<p><s>OK, I found %d things called '%s'.</s>", searchResult.found, objectSpec);
                 if (searchResult.playerItems.size() > 0) {
-                    speechOutput += "<s>" + Integer.toString(searchResult.playerItems.size()) + " in your inventory.</s>";
+                    speechOutput.append("<s>").append(searchResult.playerItems.size()).append(" in your inventory.</s>");
                 } else if (searchResult.playerItems.size() > 0) {
-                    speechOutput += "<s>" + Integer.toString(searchResult.roomItems.size()) + " nearby.</s>";
+                    speechOutput.append("<s>").append(searchResult.roomItems.size()).append(" nearby.</s>");
                 } else {
-                    speechOutput += "<s>And " + Integer.toString(searchResult.roomExits.size()) + "exits.<s/><p>";
+                    speechOutput.append("<s>And ").append(searchResult.roomExits.size()).append("exits.<s/><p>");
                 }
             }
         } else {
-            speechOutput += getRoomFullDescriptionSSML();
+            speechOutput.append(getRoomFullDescriptionSSML());
         }
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
@@ -235,11 +243,11 @@ public class MudManager {
             }
         } else {
             if (objectSpec != null)
-                speechOutput += "Sorry, I couldn't find an item named " + objectSpec + ".";
+                speechOutput.append("Sorry, I couldn't find an item named ").append(objectSpec).append('.');
             else
-                speechOutput += "Sorry, I don't understand what you want to put where.";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+                speechOutput.append("Sorry, I don't understand what you want to put where.");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         }
         return getAskSpeechletResponse();
@@ -257,10 +265,7 @@ public class MudManager {
                 MudItem fromContainer = null;
                 // find in environment
                         MudItemExitSearchResult searchResult = 
-                                MudManagerHelper.playerItemExitSearch(player, containerSpec,
-                                null, true, true, null,
-                                null, null, null, true,
-                                true, false, false);
+                                MudManagerHelper.playerItemExitSearch(player, containerSpec, CONTAINER_QUERY);
                         // for simplicity, use the first match
                         if (searchResult.playerItems.size() > 0) {
                             fromContainer = searchResult.playerItems.get(0);
@@ -271,48 +276,64 @@ public class MudManager {
 log.info("transfering");
                             // remove item from container, save, put in player, save
                             MudItem mudItem = null;
-                            // dispenser tag doesn't remove the original from the source container
-                            if (!fromContainer.tags.hasTag("dispenser")) {
-                                mudItem = fromContainer.removeContent(objectSpec);
-                            } else {
-                                mudItem = fromContainer.getContent(objectSpec);
+                            boolean fromRoom = searchResult.playerItems.size() == 0;
+                            // containers in the room are shared with other requests
+                            synchronized (player.getRoom()) {
+                                // dispenser tag doesn't remove the original from the source container
+                                if (!fromContainer.hasTag("dispenser")) {
+                                    // it may be in another container in this one
+                                    mudItem = fromContainer.findContent(objectSpec);
+                                    if (mudItem != null && !fromContainer.removeContent(mudItem))
+                                        mudItem = null;
+                                    // the container is embedded, so it's the document holding it that changed
+                                    if (mudItem != null && fromRoom) {
+                                        player.getRoom().itemChanged(fromContainer);
+                                        unitOfWork.markDirty(player.getRoom());
+                                    } else if (mudItem != null) {
+                                        player.itemChanged(fromContainer);
+                                    }
+                                } else {
+                                    // a new one every time, sharing the original's prototype
+                                    MudItem dispensed = fromContainer.findContent(objectSpec);
+                                    if (dispensed != null)
+                                        mudItem = dispensed.newCopy();
+                                }
                             }
                             if (mudItem == null) {
 log.info("failed find in container");
-                                speechOutput += String.format("<p>Huh. I can't find a %s in the %s.</p>", objectSpec, containerSpec);
+                                speechOutput.format("<p>Huh. I can't find a %s in the %s.</p>", objectSpec, containerSpec);
                             } else {
                                 player.addItem(mudItem);
-                                datastore.save(fromContainer);
-                                datastore.save(player);
-                                speechOutput += randomFrom(SUCCESS_LIST);
+                                unitOfWork.markDirty(player);
+                                speechOutput.append(randomFrom(SUCCESS_LIST));
                             }
                         } else {
-                            speechOutput += String.format("<p>I can't find a suitable container named %s</p>", containerSpec);
+                            speechOutput.format("<p>I can't find a suitable container named %s</p>", containerSpec);
                         }
             } else {
             // take from the room
-                MudItem mudItem = MudManagerHelper.playerFindItemInRoom(datastore, player, objectSpec);
+                MudItem mudItem = MudManagerHelper.playerFindItemInRoom(unitOfWork, player, objectSpec);
                 if (mudItem == null || !mudItem.getIsVisibleTo(player))
-                    speechOutput += String.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
+                    speechOutput.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
                 else {
                     if (!mudItem.getIsGetable())
-                        speechOutput += "<p>" + mudItem.getNotGetableMessage() + "</p>";
+                        speechOutput.paragraph(mudItem.getNotGetableMessage());
                     else {
                         if (containerSpecSlot != null && containerSpecSlot.getValue() != null) {
                             String containerSpec = containerSpecSlot.getValue();
-                        } else if (MudManagerHelper.playerGetFromRoom(datastore, player, mudItem, objectSpec))
-                            speechOutput += randomFrom(SUCCESS_LIST);
+                        } else if (MudManagerHelper.playerGetFromRoom(unitOfWork, player, mudItem, objectSpec))
+                            speechOutput.append(randomFrom(SUCCESS_LIST));
                         else
-                            speechOutput += "<p>Uh oh. Looks like that is no longer here.</p>";
+                            speechOutput.append("<p>Uh oh. Looks like that is no longer here.</p>");
                     }
                 }
             }
         } else {
             // what do you want to get?
-            speechOutput += "Sorry, I don't know what you want to get.";
+            speechOutput.append("Sorry, I don't know what you want to get.");
         }
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
@@ -321,44 +342,43 @@ log.info("failed find in container");
         Slot objectSpecSlot = intent.getSlot(SLOT_OBJECTSPEC);          // any object in inventory
         if (objectSpecSlot != null && objectSpecSlot.getValue() != null) {
             String objectSpec = objectSpecSlot.getValue();
-            if (MudManagerHelper.playerDrop(datastore, player, objectSpec))
-                speechOutput += randomFrom(SUCCESS_LIST);
+            if (MudManagerHelper.playerDrop(unitOfWork, player, objectSpec))
+                speechOutput.append(randomFrom(SUCCESS_LIST));
             else
-                speechOutput += String.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
+                speechOutput.format(randomFrom(OBJECT_NOT_FOUND_LIST), objectSpec);
         } else {
             // what do you want to get?
-            speechOutput += "Sorry, I don't know what you want to drop.";
+            speechOutput.append("Sorry, I don't know what you want to drop.");
         }
         // transferItem
-        speechOutput += 
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     public SpeechletResponse getOpenIntentResponse(Intent intent, Session session) {
         // find items or exits with is closed
-        speechOutput += "unimplemented";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append("unimplemented");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     public SpeechletResponse getUseIntentResponse(Intent intent, Session session) {
-        speechOutput += "unimplemented";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append("unimplemented");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     // reveals hidden items
     public SpeechletResponse getSearchIntentResponse(Intent intent, Session session) {
-        speechOutput += "unimplemented";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append("unimplemented");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
@@ -367,55 +387,55 @@ log.info("failed find in container");
         Slot objectSpecSlot = intent.getSlot(SLOT_OBJECTSPEC);          // any object in inventory
         if (objectSpecSlot != null && objectSpecSlot.getValue() != null) {
             String objectSpec = objectSpecSlot.getValue();
-            speechOutput += "unimplemented";
+            speechOutput.append("unimplemented");
         } else {
-            speechOutput += player.getRoom().getHint();
+            speechOutput.append(player.getRoom().getHint());
         }
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     // eat, drink, quaff
     public SpeechletResponse getIngestIntentResponse(Intent intent, Session session) {
-        speechOutput += "unimplemented";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append("unimplemented");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     public SpeechletResponse getUnlockIntentResponse(Intent intent, Session session) {
-        speechOutput += "unimplemented";
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append("unimplemented");
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
 
     // go through an exit
     public SpeechletResponse getGoIntentResponse(Intent intent, Session session) {
-        Slot exitSpecSlot = intent.getSlot(SLOT_OBJECTSPEC);          // any exit in the room
+        Slot exitSpecSlot = intent.getSlot(SLOT_EXITSPEC);            // any exit in the room
         if (exitSpecSlot != null && exitSpecSlot.getValue() != null) {
             String exitSpec = exitSpecSlot.getValue();
 
-            MudExit mudExit = MudManagerHelper.playerGetExit(datastore, player, exitSpec);
+            MudExit mudExit = MudManagerHelper.playerGetExit(unitOfWork, player, exitSpec);
             if (mudExit != null) {
                 if (mudExit.getIsLockedTo(player))
-                    speechOutput += "<p>" + mudExit.getLockedMessage() + "</p>";
-                else if (MudManagerHelper.playerMove(datastore, player, mudExit))
-                    speechOutput += randomFrom(SUCCESS_LIST);
+                    speechOutput.paragraph(mudExit.getLockedMessage());
+                else if (MudManagerHelper.playerMove(unitOfWork, player, mudExit))
+                    speechOutput.append(randomFrom(SUCCESS_LIST));
                 else
-                    speechOutput += "<p>There was a problem trying to move " + exitSpec + "</p>";
+                    speechOutput.paragraph("There was a problem trying to move " + exitSpec);
             } else {
-                speechOutput += "<p>Sorry, I couldn't find an exit named " + exitSpec + "</p>";
+                speechOutput.paragraph("Sorry, I couldn't find an exit named " + exitSpec);
             }
         } else {
-            speechOutput += player.getRoom().getHint();
+            speechOutput.append(player.getRoom().getHint());
         }
-        speechOutput += randomFrom(WHAT_NEXT_Q_LIST);
-        repromptSpeech += randomFrom(REPROMPT_Q_LIST);
+        speechOutput.append(randomFrom(WHAT_NEXT_Q_LIST));
+        repromptSpeech.append(randomFrom(REPROMPT_Q_LIST));
 
         return getAskSpeechletResponse();
     }
@@ -433,15 +453,15 @@ log.info("failed find in container");
      * @return response for the help intent
      */
     public SpeechletResponse getHelpIntentReponse(Intent intent, Session session) {
-        speechOutput += "You are in a multiuser dungeon or mud. "
+        speechOutput.append("You are in a multiuser dungeon or mud. "
             + "Your goal is to find treasure, gain experience, and explore! "
             + "You can take actions like 'look around', 'open chest', "
             + "'light torch', 'get key', and 'search room'. "
             + "You can move around the dungeon by going through exits, "
             + "for example if I tell you a room has a north exit, you "
             + "can say 'go north'.  You can also ask me for a hint. "
-            + "Now, what can I help you with?";
-        repromptSpeech += "Try saying 'look around' or ask me for help again to hear the instructions.";
+            + "Now, what can I help you with?");
+        repromptSpeech.append("Try saying 'look around' or ask me for help again to hear the instructions.");
 
         return getAskSpeechletResponse();
     }
@@ -474,22 +494,18 @@ log.info("failed find in container");
         // Create the Simple card content.
         SimpleCard card = new SimpleCard();
         card.setTitle("Mud");
-        card.setContent(speechOutput);
+        card.setContent(speechOutput.toString());
 
         // create the SSML output
         SsmlOutputSpeech speech = new SsmlOutputSpeech();
-        speech.setSsml("<speak>" + speechOutput + "</speak>");
+        speech.setSsml(speechOutput.toSpeak());
 
         // Create reprompt
         SsmlOutputSpeech reprompt = new SsmlOutputSpeech();
-        ((SsmlOutputSpeech) reprompt).setSsml("<speak>" + repromptSpeech + "</speak>");
+        ((SsmlOutputSpeech) reprompt).setSsml(repromptSpeech.toSpeak());
         Reprompt reprompter = new Reprompt();
         reprompter.setOutputSpeech(reprompt);
 
-        // reset these for the next interaction
-        speechOutput = "";
-        repromptSpeech = "";
-
         return SpeechletResponse.newAskResponse(speech, reprompter, card);
     }
 
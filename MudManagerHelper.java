@@ -1,18 +1,12 @@
 package mud;
 
-import java.util.Map;
 import java.util.List;
-import java.util.HashSet;
-import java.util.ArrayList;
-import java.util.Iterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.bson.types.ObjectId;
 
-import org.mongodb.morphia.Datastore;
-
 public final class MudManagerHelper {
     private static final Logger log = LoggerFactory.getLogger(MudManagerHelper.class);
 
@@ -21,41 +15,41 @@ public final class MudManagerHelper {
     private MudManagerHelper() {
     }
 
-    public static MudPlayer getPlayer(Datastore datastore, String userId) {
-        MudPlayer player = datastore.get(MudPlayer.class, userId);
+    public static MudPlayer getPlayer(MudUnitOfWork unitOfWork, String userId) {
+        MudPlayer player = unitOfWork.getPlayer(userId);
         if (player == null) {
-            player = playerNew(datastore, userId);
+            player = playerNew(unitOfWork, userId);
         }
-        player.updateLastSeen();
-        player.incrementInteractions();
-        datastore.save(player);
+        unitOfWork.touch(player);
 
         MudRoom room = player.getRoom();
-        room.updateLastVisited();
-        datastore.save(room);
+        synchronized (room) {
+            unitOfWork.touch(room);
+        }
 
         log.info("player activated - userId = {} roomId = {}", userId, room.getId());
 
         return player;
     }
 
-    public static MudPlayer playerNew(Datastore datastore, String userId) {
+    public static MudPlayer playerNew(MudUnitOfWork unitOfWork, String userId) {
         MudPlayer player = new MudPlayer();
-        MudRoom startRoom = datastore.get(MudRoom.class, MUD_ROOMID_START);
+        MudRoom startRoom = unitOfWork.getRoom(MUD_ROOMID_START);
         log.info("new player with userId = {} in roomId = {}", userId, startRoom.getId());
         player.setId(userId);
         player.setRoom(startRoom);
         player.setIsNew(true);
-        datastore.save(player);
+        unitOfWork.markRewrite(player);
 
-        startRoom.addPlayer(player);
-        startRoom.updateLastVisited();
-        datastore.save(startRoom);
+        synchronized (startRoom) {
+            startRoom.addPlayer(player);
+        }
+        unitOfWork.markDirty(startRoom);
 
         return player;
     }
 
-    public static MudExit playerGetExit(Datastore datastore, MudPlayer player, String exit) {
+    public static MudExit playerGetExit(MudUnitOfWork unitOfWork, MudPlayer player, String exit) {
         MudRoom oldRoom = player.getRoom();
 
         MudExit mudExit = oldRoom.getExit(exit);
@@ -64,56 +58,71 @@ public final class MudManagerHelper {
     }
 
     // this doesn't check for locks
-    public static boolean playerMove(Datastore datastore, MudPlayer player, MudExit mudExit) {
+    public static boolean playerMove(MudUnitOfWork unitOfWork, MudPlayer player, MudExit mudExit) {
         MudRoom oldRoom = player.getRoom();
 
         if (mudExit == null)
             return false;
 
-        MudRoom newRoom = mudExit.getDestination();
+        if (mudExit.getDestinationId() == null)
+            return false;
+        MudRoom newRoom = unitOfWork.getRoom(mudExit.getDestinationId());
         if (newRoom == null ) {
             return false;
         }
 
-        oldRoom.removePlayer(player);
-        datastore.save(oldRoom);
+        synchronized (oldRoom) {
+            oldRoom.removePlayer(player);
+        }
+        unitOfWork.markDirty(oldRoom);
 
-        newRoom.addPlayer(player);
-        newRoom.updateLastVisited();
-        datastore.save(newRoom);
+        synchronized (newRoom) {
+            newRoom.addPlayer(player);
+            unitOfWork.touch(newRoom);
+        }
+        unitOfWork.markDirty(newRoom);
 
         player.setRoom(newRoom);
-        datastore.save(player);
+        unitOfWork.markDirty(player);
 
         log.info("player {} moved from room {} to room {}", player.getId(), oldRoom.getId(), newRoom.getId());
         return true;
     }
 
-    public static boolean playerDrop(Datastore datastore, MudPlayer player, String name) {
+    public static boolean playerDrop(MudUnitOfWork unitOfWork, MudPlayer player, String name) {
         MudItem mudItem = player.removeItem(name);
         MudRoom mudRoom = player.getRoom();
         if (mudItem == null)
             return false;
-        mudRoom.addItem(mudItem);
+        synchronized (mudRoom) {
+            mudRoom.addItem(mudItem);
+        }
 
-        datastore.save(player);
-        datastore.save(mudRoom);
+        unitOfWork.markDirty(player);
+        unitOfWork.markDirty(mudRoom);
         
         return true;
     }
 
-    public static MudItem playerFindItemInRoom(Datastore datastore, MudPlayer player, String name) {
+    public static MudItem playerFindItemInRoom(MudUnitOfWork unitOfWork, MudPlayer player, String name) {
         MudRoom currentRoom = player.getRoom();
-        return currentRoom.getItem(name);
+        synchronized (currentRoom) {
+            return currentRoom.getItem(name);
+        }
     }
 
-    public static boolean playerGetFromRoom(Datastore datastore, MudPlayer player, MudItem mudItem, String name) {
+    public static boolean playerGetFromRoom(MudUnitOfWork unitOfWork, MudPlayer player, MudItem mudItem, String name) {
         MudRoom currentRoom = player.getRoom();
         if (mudItem != null) {
-            currentRoom.removeItem(name);
+            // someone else may have taken it since we looked
+            synchronized (currentRoom) {
+                if (currentRoom.getItem(name) != mudItem)
+                    return false;
+                currentRoom.removeItem(name);
+            }
             player.addItem(mudItem);
-            datastore.save(player);
-            datastore.save(currentRoom);
+            unitOfWork.markDirty(player);
+            unitOfWork.markDirty(currentRoom);
             return true;
         }
         return false;
@@ -127,105 +136,68 @@ public final class MudManagerHelper {
         return mudItem;
     }
 
-    public static boolean isItemMatch(MudPlayer player, MudItem mudItem,
-            Boolean isGetable, Boolean isContainer, Boolean isVisible, Boolean isUseable,
-            Boolean hasUsesLeft, Boolean isIngestable, String hasTag) {
-        boolean addItem = true;
-
-        if (mudItem != null) {
-            log.info("isItemMatch: mudItem.shortName = {}", mudItem.getShortName());
-            if (isGetable != null && (isGetable != mudItem.getIsGetable()))
-                addItem = false;
-            else if (isContainer != null && (isContainer != mudItem.getIsContainer()))
-                addItem = false;
-            else if (isVisible != null && (isVisible != mudItem.getIsVisibleTo(player))) 
-                addItem = false;
-            else if (isUseable != null && (isUseable =! mudItem.getIsUsable()))
-                addItem = false;
-            else if (hasUsesLeft != null && ((hasUsesLeft && mudItem.getUsesLeft() > 0) 
-                    || (!hasUsesLeft && mudItem.getUsesLeft() == 0)))
-                addItem = false;
-            else if (isIngestable != null && (isIngestable != mudItem.getIsIngestable()))
-                addItem = false;
-            else if (hasTag != null && !mudItem.tags.hasTag(hasTag))
-                addItem = false;
-            return addItem;
-        }
-        return false;
-    }
-
-    public static MudItemExitSearchResult playerItemExitSearch(MudPlayer player, String name,
-            Boolean isGetable, Boolean isContainer, Boolean isVisible, Boolean isUseable,
-            Boolean hasUsesLeft, Boolean isIngestable, String hasTag, boolean includePlayer,
-            boolean includeRoom, boolean includeExits, boolean includeFullName) {
-
+    public static MudItemExitSearchResult playerItemExitSearch(MudPlayer player, String name, MudItemQuery query) {
         MudItemExitSearchResult result = new MudItemExitSearchResult();
         MudRoom room = player.getRoom();
         MudItem mudItem;
 
-        log.info("playerItemExitSearch({}, {}, isGetable = {}, isContainer = {}, isVisible = {}, isUseable = {}, "
-                + "hasUsesLeft = {}, isIngestable = {}, hasTag = {}, includePlayer = {}, includeRoom = {}, "
-                + "includeExits = {}, includeFullName = {})", player.getId(), name, isGetable, isContainer, isVisible,
-                    isUseable, hasUsesLeft, isIngestable, hasTag, includePlayer, includeRoom,
-                    includeExits, includeFullName);
+        if (log.isDebugEnabled())
+            log.debug("playerItemExitSearch({}, {}, {})", player.getId(), name, query);
 
-        if (includePlayer) {
+        if (query.getIncludePlayer()) {
             mudItem = player.getItem(name);
-            if (isItemMatch(player, mudItem, isGetable, isContainer, isVisible, isUseable,
-                    hasUsesLeft, isIngestable, hasTag))
+            if (query.matches(player, mudItem))
                 result.playerItems.add(mudItem);
-            if (includeFullName) {
-                HashSet<MudItem> mudItemList = player.getItemListByFullName(name);
-                Iterator<MudItem> it = mudItemList.iterator();
-                while (it.hasNext()) {
-                    mudItem = it.next();
-                    if (isItemMatch(player, mudItem, isGetable, isContainer, isVisible, isUseable,
-                            hasUsesLeft, isIngestable, hasTag))
-                        result.playerItems.add(mudItem);
+            if (query.getIncludeFullName()) {
+                // the short name match may answer to its full name too
+                for (MudItem fullNameItem : player.getItemListByFullName(name)) {
+                    if (fullNameItem != mudItem && query.matches(player, fullNameItem))
+                        result.playerItems.add(fullNameItem);
                 }
             }
+            if (query.getIncludeNested())
+                nestedSearch(player, player.getItems(), name, query, result.playerItems);
         }
 
-        if (includeRoom) {
-            mudItem = room.getItem(name);
-            if (isItemMatch(player, mudItem, isGetable, isContainer, isVisible, isUseable,
-                    hasUsesLeft, isIngestable, hasTag))
-                result.roomItems.add(mudItem);
-            if (includeFullName) {
-                HashSet<MudItem> mudItemList = room.getItemListByFullName(name);
-                Iterator<MudItem> it = mudItemList.iterator();
-                while (it.hasNext()) {
-                    mudItem = it.next();
-                    if (isItemMatch(player, mudItem, isGetable, isContainer, isVisible, isUseable,
-                            hasUsesLeft, isIngestable, hasTag))
-                        result.playerItems.add(mudItem);
+        if (query.getIncludeRoom()) {
+            // rooms are shared with other requests
+            synchronized (room) {
+                mudItem = room.getItem(name);
+                if (query.matches(player, mudItem))
+                    result.roomItems.add(mudItem);
+                if (query.getIncludeFullName()) {
+                    for (MudItem fullNameItem : room.getItemListByFullName(name)) {
+                        if (fullNameItem != mudItem && query.matches(player, fullNameItem))
+                            result.roomItems.add(fullNameItem);
+                    }
                 }
+                if (query.getIncludeNested())
+                    nestedSearch(player, room.getItems(), name, query, result.roomItems);
             }
         }
 
-        if (includeExits) {
+        if (query.getIncludeExits()) {
             MudExit mudExit = room.getExit(name);
-            if (mudExit != null) {
-                boolean addExit = true;
-                if (isGetable != null && isGetable == true)
-                    addExit = false;
-                else if (isContainer != null && isContainer == true)
-                    addExit = false;
-                else if (isVisible != null && mudExit.getIsVisibleTo(player))
-                    addExit = false;
-                else if (isUseable != null && isUseable == true)
-                    addExit = false;
-                else if (hasUsesLeft != null)
-                    addExit = false;
-                else if (isIngestable != null)
-                    addExit = false;
-                else if (hasTag != null && !mudExit.tags.hasTag(hasTag))
-                    addExit = false;
-                if (addExit)
-                    result.roomExits.add(mudExit);
-            }
+            if (query.matches(player, mudExit))
+                result.roomExits.add(mudExit);
         }
         result.found = result.playerItems.size() + result.roomItems.size() + result.roomExits.size();
         return result;
     }
+
+    // the items inside the items in mudItemMap, at any depth, from its nested index
+    private static void nestedSearch(MudPlayer player, MudItemMap mudItemMap, String name, MudItemQuery query,
+            MudItemExitSearchResult.Matches<MudItem> matches) {
+        for (MudItem mudItem : mudItemMap.getNested(name)) {
+            if (query.matches(player, mudItem))
+                matches.add(mudItem);
+        }
+        if (!query.getIncludeFullName())
+            return;
+        for (MudItem fullNameItem : mudItemMap.getNestedByFullName(name)) {
+            // answering to both names, it's already been matched
+            if (!name.equals(fullNameItem.getShortName()) && query.matches(player, fullNameItem))
+                matches.add(fullNameItem);
+        }
+    }
 }
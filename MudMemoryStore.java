@@ -0,0 +1,387 @@
+package mud;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBObject;
+
+import org.mongodb.morphia.Key;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.mapping.cache.EntityCache;
+import org.mongodb.morphia.mapping.cache.EntityCacheStatistics;
+
+// the world kept in this process, for single node deployments, benchmarks
+// and tests, nothing ever goes over the network
+// entities are held by reference rather than copied in and out, so a request
+// gets the stored instance itself and its changes are already in the store
+// by the time they'd be written, update() only has to note that something
+// changed.  that goes for players too, alexa doesn't send a session more than
+// one request at a time
+// the store can be snapshotted to a MudSnapshot file and loaded back from
+// one, a snapshot can be taken every so often in the background
+public class MudMemoryStore implements MudWorldStore {
+    private static final Logger log = LoggerFactory.getLogger(MudMemoryStore.class);
+
+    private static final String PLAYERS = "players";
+    private static final String ROOMS = "rooms";
+    private static final String LOCKS = "locks";
+    private static final String PROTOTYPES = "prototypes";
+
+    private final Morphia morphia;
+    private final Map<String, MudPlayer> players;
+    private final Map<ObjectId, MudRoom> rooms;
+    private final Map<ObjectId, MudLock> locks;
+    private final MudItemPrototypes prototypes;
+
+    private final AtomicLong gets;
+    private final AtomicLong saves;
+    private final AtomicLong updates;
+    private volatile long snapshotWrites;    // saves + updates at the last snapshot
+
+    private ScheduledExecutorService snapshotter;
+    private File snapshotFile;
+
+    public MudMemoryStore(Morphia morphia) {
+        this.morphia = morphia;
+        players = new ConcurrentHashMap<String, MudPlayer>();
+        rooms = new ConcurrentHashMap<ObjectId, MudRoom>();
+        locks = new ConcurrentHashMap<ObjectId, MudLock>();
+        prototypes = new MudItemPrototypes();
+        gets = new AtomicLong();
+        saves = new AtomicLong();
+        updates = new AtomicLong();
+    }
+
+    public MudPlayer getPlayer(String id) {
+        gets.incrementAndGet();
+        return players.get(id);
+    }
+
+    public MudRoom getRoom(ObjectId id) {
+        gets.incrementAndGet();
+        return rooms.get(id);
+    }
+
+    public MudLock getLock(ObjectId id) {
+        gets.incrementAndGet();
+        return locks.get(id);
+    }
+
+    // counted as one get, it's one round trip on a store that has them
+    public List<MudPlayer> getPlayers(Collection<String> ids) {
+        gets.incrementAndGet();
+        List<MudPlayer> found = new ArrayList<MudPlayer>(ids.size());
+        for (String id : ids) {
+            MudPlayer player = players.get(id);
+            if (player != null)
+                found.add(player);
+        }
+        return found;
+    }
+
+    public List<MudRoom> getRooms(Collection<ObjectId> ids) {
+        gets.incrementAndGet();
+        List<MudRoom> found = new ArrayList<MudRoom>(ids.size());
+        for (ObjectId id : ids) {
+            MudRoom room = rooms.get(id);
+            if (room != null)
+                found.add(room);
+        }
+        return found;
+    }
+
+    // items are held as they were written, already pointing at their
+    // prototypes, only the ones loaded from a snapshot are bound here
+    public MudItemPrototypes getPrototypes() {
+        return prototypes;
+    }
+
+    public void save(Object entity) {
+        saves.incrementAndGet();
+        if (entity instanceof MudPlayer) {
+            MudPlayer player = (MudPlayer)entity;
+            players.put(player.getId(), player);
+        } else if (entity instanceof MudRoom) {
+            MudRoom room = (MudRoom)entity;
+            if (room.getId() == null)
+                room.setId(new ObjectId());
+            rooms.put(room.getId(), room);
+        } else if (entity instanceof MudLock) {
+            MudLock lock = (MudLock)entity;
+            if (lock.getId() == null)
+                lock.setId(new ObjectId());
+            locks.put(lock.getId(), lock);
+        } else if (entity instanceof MudItemPrototype) {
+            MudItemPrototype prototype = (MudItemPrototype)entity;
+            prototypes.register(prototype);
+        } else {
+            throw new IllegalArgumentException("not an entity: " + entity.getClass().getName());
+        }
+    }
+
+    public void saveAll(List<?> entities) {
+        for (Object entity : entities)
+            save(entity);
+    }
+
+    // the entity is the stored one, so its changes are already here
+    public void update(Object entity, Object id, MudUpdate changes) {
+        updates.incrementAndGet();
+    }
+
+    // these changes haven't been made to the entities yet, so make them here,
+    // holding the monitor the way the unit of work does
+    public void updateAll(Class<?> type, Map<Object, MudUpdate> batch) {
+        updates.incrementAndGet();
+        for (Map.Entry<Object, MudUpdate> entry : batch.entrySet()) {
+            Object entity;
+            if (type == MudPlayer.class)
+                entity = players.get(entry.getKey());
+            else if (type == MudRoom.class)
+                entity = rooms.get(entry.getKey());
+            else if (type == MudLock.class)
+                entity = locks.get(entry.getKey());
+            else
+                throw new IllegalArgumentException("not an entity: " + type.getName());
+            if (entity == null)
+                continue;
+            synchronized (entity) {
+                entry.getValue().applyTo(morphia, entity);
+            }
+        }
+    }
+
+    // the entity is the one written, there's nothing to work out beforehand
+    public Runnable prepareSave(final Object entity) {
+        return new Runnable() {
+            public void run() {
+                save(entity);
+            }
+        };
+    }
+
+    public Runnable prepareUpdate(Object entity, Object id, MudUpdate changes) {
+        return new Runnable() {
+            public void run() {
+                updates.incrementAndGet();
+            }
+        };
+    }
+
+    public long getGets() {
+        return gets.get();
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    // write everything to file as a MudSnapshot, the same format a mongo
+    // world is dumped in
+    // rooms and locks are shared and players are the ones requests change, so
+    // they're all mapped while holding their monitor
+    public void snapshot(File file) throws IOException {
+        long writes = saves.get() + updates.get();
+        MudSnapshot.Writer writer = new MudSnapshot.Writer(file);
+        try {
+            for (MudLock lock : locks.values()) {
+                DBObject document;
+                synchronized (lock) {
+                    document = morphia.toDBObject(lock);
+                }
+                writer.write(LOCKS, document);
+            }
+            for (MudRoom room : rooms.values()) {
+                DBObject document;
+                synchronized (room) {
+                    document = morphia.toDBObject(room);
+                }
+                writer.write(ROOMS, document);
+            }
+            for (MudPlayer player : players.values()) {
+                DBObject document;
+                synchronized (player) {
+                    document = morphia.toDBObject(player);
+                }
+                writer.write(PLAYERS, document);
+            }
+            for (MudItemPrototype prototype : prototypes.getAll())
+                writer.write(PROTOTYPES, morphia.toDBObject(prototype));
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. an entity changed while it was mapped
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+        snapshotWrites = writes;
+        log.info("snapshot of {} documents written to {}", writer.getCount(), file);
+    }
+
+    // snapshot every period, skipping any period where nothing was written,
+    // and once more when the store is closed
+    public synchronized void startSnapshots(final File file, long period, TimeUnit unit) {
+        if (snapshotter != null)
+            throw new IllegalStateException("snapshots already started");
+        snapshotter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mud-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshotter.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                snapshotIfChanged(file);
+            }
+        }, period, period, unit);
+        snapshotFile = file;
+    }
+
+    private void snapshotIfChanged(File file) {
+        if (saves.get() + updates.get() == snapshotWrites)
+            return;
+        // anything thrown out of here would cancel every later snapshot
+        try {
+            snapshot(file);
+        } catch (IOException e) {
+            log.error("snapshot to {} failed", file, e);
+        } catch (RuntimeException e) {
+            log.error("snapshot to {} failed", file, e);
+        }
+    }
+
+    // stop snapshotting and take a last one
+    public synchronized void close() throws InterruptedException {
+        if (snapshotter == null)
+            return;
+        snapshotter.shutdown();
+        snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        snapshotter = null;
+        snapshotIfChanged(snapshotFile);
+    }
+
+    // a store holding what's in a snapshot, from the memory store or a dump
+    // of a mongo world
+    // every entity is created first so references between them, the locks on
+    // items and exits, resolve to the one loaded instance instead of a copy each
+    public static MudMemoryStore load(Morphia morphia, final File file) throws IOException {
+        final MudMemoryStore store = new MudMemoryStore(morphia);
+        final List<DBObject> documents = new ArrayList<DBObject>();
+        final List<Object> entities = new ArrayList<Object>();
+        final List<Key<Object>> keys = new ArrayList<Key<Object>>();
+        Mapper mapper = morphia.getMapper();
+        final LoadCache cache = new LoadCache();
+
+        MudSnapshot.read(file, new MudSnapshot.Visitor() {
+            public void document(String collection, DBObject document) throws IOException {
+                Object id = document.get("_id");
+                Object entity;
+                if (collection.equals(PLAYERS)) {
+                    MudPlayer player = new MudPlayer();
+                    player.setId((String)id);
+                    store.players.put(player.getId(), player);
+                    entity = player;
+                } else if (collection.equals(ROOMS)) {
+                    MudRoom room = new MudRoom();
+                    room.setId((ObjectId)id);
+                    store.rooms.put(room.getId(), room);
+                    entity = room;
+                } else if (collection.equals(LOCKS)) {
+                    MudLock lock = new MudLock();
+                    lock.setId((ObjectId)id);
+                    store.locks.put(lock.getId(), lock);
+                    entity = lock;
+                } else if (collection.equals(PROTOTYPES)) {
+                    MudItemPrototype prototype = new MudItemPrototype((String)id);
+                    store.prototypes.register(prototype);
+                    entity = prototype;
+                } else {
+                    throw new IOException("unknown collection " + collection + " in " + file);
+                }
+                Key<Object> key = new Key<Object>(entity.getClass(), collection, id);
+                cache.putEntity(key, entity);
+                documents.add(document);
+                entities.add(entity);
+                keys.add(key);
+            }
+        });
+
+        for (int i = 0; i < documents.size(); i++) {
+            cache.loading = keys.get(i);
+            mapper.fromDb(documents.get(i), entities.get(i), cache);
+        }
+        for (MudRoom room : store.rooms.values())
+            store.prototypes.bind(room);
+        for (MudPlayer player : store.players.values())
+            store.prototypes.bind(player);
+        log.info("loaded {} players, {} rooms, {} locks, {} prototypes from {}", store.players.size(),
+                store.rooms.size(), store.locks.size(), store.prototypes.size(), file);
+        return store;
+    }
+
+    // hands morphia the already created entity for every reference, except
+    // the one being loaded, which morphia would otherwise take as already
+    // loaded and skip
+    private static final class LoadCache implements EntityCache {
+        private final Map<Key<?>, Object> entities = new HashMap<Key<?>, Object>();
+        private final EntityCacheStatistics stats = new EntityCacheStatistics();
+        Key<?> loading;
+
+        public Boolean exists(Key<?> key) {
+            return entities.containsKey(key) ? Boolean.TRUE : null;
+        }
+
+        public void notifyExists(Key<?> key, boolean exists) {
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T getEntity(Key<T> key) {
+            if (key.equals(loading))
+                return null;
+            return (T)entities.get(key);
+        }
+
+        public <T> T getProxy(Key<T> key) {
+            return null;
+        }
+
+        public <T> void putProxy(Key<T> key, T t) {
+        }
+
+        public <T> void putEntity(Key<T> key, T entity) {
+            entities.put(key, entity);
+        }
+
+        public void flush() {
+            entities.clear();
+        }
+
+        public EntityCacheStatistics stats() {
+            return stats;
+        }
+    }
+}
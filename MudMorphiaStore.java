@@ -0,0 +1,190 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.bson.BasicBSONEncoder;
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.InsertOptions;
+import com.mongodb.BasicDBObject;
+
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.Morphia;
+
+// the world in mongo through morphia, changes are written as targeted updates
+// the item prototypes are read once, when the store is made
+public class MudMorphiaStore implements MudWorldStore {
+    private static final int INSERT_BATCH = 1000;
+
+    private final Datastore datastore;
+    private final Morphia morphia;
+    private final MudItemPrototypes prototypes;
+
+    private volatile boolean measureBytes;
+    private long bytesWritten;
+
+    public MudMorphiaStore(Datastore datastore, Morphia morphia) {
+        this.datastore = datastore;
+        this.morphia = morphia;
+        prototypes = new MudItemPrototypes();
+        prototypes.registerAll(datastore.find(MudItemPrototype.class).asList());
+    }
+
+    public Datastore getDatastore() {
+        return datastore;
+    }
+
+    public Morphia getMorphia() {
+        return morphia;
+    }
+
+    public MudPlayer getPlayer(String id) {
+        return bind(datastore.get(MudPlayer.class, id));
+    }
+
+    public MudRoom getRoom(ObjectId id) {
+        return bind(datastore.get(MudRoom.class, id));
+    }
+
+    public MudLock getLock(ObjectId id) {
+        return datastore.get(MudLock.class, id);
+    }
+
+    // one query, _id $in ids
+    public List<MudPlayer> getPlayers(Collection<String> ids) {
+        return bindAll(datastore.createQuery(MudPlayer.class).field("_id").in(ids).asList());
+    }
+
+    public List<MudRoom> getRooms(Collection<ObjectId> ids) {
+        return bindAll(datastore.createQuery(MudRoom.class).field("_id").in(ids).asList());
+    }
+
+    public MudItemPrototypes getPrototypes() {
+        return prototypes;
+    }
+
+    private <T> T bind(T entity) {
+        if (entity != null)
+            prototypes.bind(entity);
+        return entity;
+    }
+
+    private <T> List<T> bindAll(List<T> entities) {
+        for (T entity : entities)
+            prototypes.bind(entity);
+        return entities;
+    }
+
+    // prototypes are registered once they're written
+    private void written(Object entity) {
+        if (entity instanceof MudItemPrototype)
+            prototypes.register((MudItemPrototype)entity);
+    }
+
+    public void save(Object entity) {
+        datastore.save(entity);
+        written(entity);
+        if (measureBytes)
+            addBytesWritten(morphia.toDBObject(entity));
+    }
+
+    // consecutive entities of the same type go in ordered bulk inserts of up
+    // to INSERT_BATCH documents, so the first failure stops the rest
+    // an entity without an id yet is saved through morphia so it gets one,
+    // only new entities don't have one and they aren't shared
+    public Runnable prepareSave(final Object entity) {
+        final Object id = morphia.getMapper().getId(entity);
+        if (id == null) {
+            return new Runnable() {
+                public void run() {
+                    save(entity);
+                }
+            };
+        }
+        final DBObject document = morphia.toDBObject(entity);
+        final Class<?> type = entity.getClass();
+        return new Runnable() {
+            public void run() {
+                datastore.getCollection(type).save(document);
+                written(entity);
+                if (measureBytes)
+                    addBytesWritten(document);
+            }
+        };
+    }
+
+    public Runnable prepareUpdate(Object entity, final Object id, MudUpdate changes) {
+        final DBObject update = changes.toDBObject(morphia);
+        final Class<?> type = entity.getClass();
+        return new Runnable() {
+            public void run() {
+                datastore.getCollection(type).update(new BasicDBObject("_id", id), update);
+                if (measureBytes)
+                    addBytesWritten(update);
+            }
+        };
+    }
+
+    public void saveAll(List<?> entities) {
+        List<DBObject> batch = new ArrayList<DBObject>(INSERT_BATCH);
+        Class<?> type = null;
+        for (Object entity : entities) {
+            if (entity.getClass() != type || batch.size() == INSERT_BATCH) {
+                insert(type, batch);
+                type = entity.getClass();
+            }
+            DBObject document = morphia.toDBObject(entity);
+            batch.add(document);
+            if (measureBytes)
+                addBytesWritten(document);
+        }
+        insert(type, batch);
+        for (Object entity : entities)
+            written(entity);
+    }
+
+    private void insert(Class<?> type, List<DBObject> batch) {
+        if (batch.isEmpty())
+            return;
+        datastore.getCollection(type).insert(batch, new InsertOptions().continueOnError(false));
+        batch.clear();
+    }
+
+    public void update(Object entity, Object id, MudUpdate changes) {
+        DBObject update = changes.toDBObject(morphia);
+        datastore.getCollection(entity.getClass()).update(new BasicDBObject("_id", id), update);
+        if (measureBytes)
+            addBytesWritten(update);
+    }
+
+    // one unordered bulk write for the whole batch
+    public void updateAll(Class<?> type, Map<Object, MudUpdate> updates) {
+        BulkWriteOperation bulk = datastore.getCollection(type).initializeUnorderedBulkOperation();
+        for (Map.Entry<Object, MudUpdate> entry : updates.entrySet()) {
+            DBObject update = entry.getValue().toDBObject(morphia);
+            bulk.find(new BasicDBObject("_id", entry.getKey())).updateOne(update);
+            if (measureBytes)
+                addBytesWritten(update);
+        }
+        bulk.execute();
+    }
+
+    // bson encode everything written so it can be counted, costs an extra
+    // encoding per write so it's off unless benchmarking
+    public void setMeasureBytes(boolean measureBytes) {
+        this.measureBytes = measureBytes;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private synchronized void addBytesWritten(DBObject dbObject) {
+        bytesWritten += new BasicBSONEncoder().encode(dbObject).length;
+    }
+}
@@ -5,10 +5,11 @@ import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Id;
 import org.mongodb.morphia.annotations.Property;
 import org.mongodb.morphia.annotations.Reference;
+import org.mongodb.morphia.annotations.Transient;
 import org.bson.types.ObjectId;
 
 import java.util.Date;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -21,11 +22,14 @@ public class MudPlayer {
     int sessions;
     int interactions;
     boolean isNew;
-    @Reference
-    private MudRoom room;
+    private ObjectId roomId;
+    @Transient
+    private MudRoom room;               // resolved from roomId through the world cache
     @Embedded("inventory")
-    private Map<String, MudItem> inventory = new HashMap<String, MudItem>();
+    private MudItemMap inventory = new MudItemMap();
     public MudTags tags;
+    @Transient
+    private final MudUpdate changes = new MudUpdate(); // what changed since the last write
 
     public MudPlayer() {
         sessionId = "";
@@ -49,41 +53,53 @@ public class MudPlayer {
 
     public void setSessionId(String sessionId) {
         this.sessionId = sessionId;
+        changes.set("sessionId", sessionId);
     }
 
     public boolean isSessionId(String sessionId) {
         return this.sessionId.equals(sessionId);
     }
 
+    public ObjectId getRoomId() {
+        return roomId;
+    }
+
     public MudRoom getRoom() {
         return room;
     }
 
     public void setRoom(MudRoom newRoom) {
         room = newRoom;
+        roomId = newRoom.getId();
+        changes.set("roomId", roomId);
     }
 
     public int addItem(MudItem mudItem) {
-        return MudItemMapHelper.addItem(inventory, mudItem);
+        return inventory.add(mudItem, changes, "inventory");
     }
 
     public MudItem removeItem(String name) {
-        return MudItemMapHelper.removeItem(inventory, name);
+        return inventory.remove(name, changes, "inventory");
+    }
+
+    // call after changing an item in the inventory in place, e.g. its contents
+    public void itemChanged(MudItem mudItem) {
+        inventory.changed(mudItem, changes, "inventory");
     }
 
     public boolean hasItem(String name) {
-        return MudItemMapHelper.hasItem(inventory, name);
+        return inventory.has(name);
     }
 
     public MudItem getItem(String name) {
-        return MudItemMapHelper.getItem(inventory, name);
+        return inventory.get(name);
     }
 
-    public HashSet<MudItem> getItemListByFullName(String name) {
-        return MudItemMapHelper.getItemListByFullName(inventory, name);
+    public Collection<MudItem> getItemListByFullName(String name) {
+        return inventory.getByFullName(name);
     }
 
-    public Map<String, MudItem> getItems() {
+    public MudItemMap getItems() {
         return inventory;
     }
 
@@ -97,14 +113,16 @@ public class MudPlayer {
     
     public void setIsNew(boolean isNew) {
         this.isNew = isNew;
+        changes.set("isNew", isNew);
     }
 
     public int getSessions() {
-        return interactions;
+        return sessions;
     }
 
     public void incrementSessions() {
-        interactions++;
+        sessions++;
+        changes.inc("sessions", 1);
     }
 
     public int getInteractions() {
@@ -113,6 +131,7 @@ public class MudPlayer {
 
     public void incrementInteractions() {
         interactions++;
+        changes.inc("interactions", 1);
     }
 
     public Date getLastSeen() {
@@ -120,6 +139,11 @@ public class MudPlayer {
     }
 
     public void updateLastSeen() {
-        lastSeen = new Date();
+        lastSeen = MudActivity.now();
+        changes.max("lastSeen", lastSeen);
+    }
+
+    public MudUpdate getChanges() {
+        return changes;
     }
 }
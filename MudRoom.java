@@ -4,14 +4,16 @@ import org.mongodb.morphia.annotations.Entity;
 import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Id;
 import org.mongodb.morphia.annotations.Property;
-import org.mongodb.morphia.annotations.Reference;
+import org.mongodb.morphia.annotations.Transient;
 import org.bson.types.ObjectId;
 
 import java.util.Date;
 import java.util.Map;
-import java.util.List;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.HashSet;
+import java.util.Collections;
 
 @Entity("rooms")
 public class MudRoom {
@@ -22,16 +24,23 @@ public class MudRoom {
     @Embedded("exits")
     private Map<String, MudExit> exits;
     @Embedded("items")
-    private Map<String, MudItem> items;
-    @Reference
-    private HashSet<MudPlayer> players;
+    private MudItemMap items;
+    private HashSet<String> playerIds;      // just the ids, players are loaded on demand
+    @Transient
+    private final MudUpdate changes = new MudUpdate(); // what changed since the last write
+    @Transient
+    private long version;                   // bumped whenever what's said about the room changes
+    @Transient
+    private String descriptionSSML;         // the description as last rendered
+    @Transient
+    private long descriptionSSMLVersion = -1; // the version it was rendered at
 
     public MudRoom() {
         description = "Nothing to see here.";
         hint = "No hint available.";
         exits = new HashMap<String, MudExit>();
-        items = new HashMap<String, MudItem>();
-        players = new HashSet<MudPlayer>();
+        items = new MudItemMap();
+        playerIds = new HashSet<String>();
     }
 
     public ObjectId getId() {
@@ -48,6 +57,7 @@ public class MudRoom {
 
     public void setDescription(String description) {
         this.description = description;
+        version++;
     }
 
     public String getHint() {
@@ -69,59 +79,83 @@ public class MudRoom {
         return exits.get(name);
     }
 
-    public MudRoom getExitDestination(String name) {
+    public ObjectId getExitDestinationId(String name) {
         MudExit exit = exits.get(name);
         if (exit != null)
-            return exits.get(name).getDestination();
+            return exit.getDestinationId();
         return null;
     }
 
+    public void addExit(String name, MudExit mudExit) {
+        exits.put(name, mudExit);
+        changes.set("exits." + name, mudExit);
+        version++;
+    }
+
+    // read only, use addExit so the change is seen
     public Map<String, MudExit> getExits() {
-        return exits;
+        return Collections.unmodifiableMap(exits);
     }
 
     public int addItem(MudItem mudItem) {
-        return MudItemMapHelper.addItem(items, mudItem);
+        version++;
+        return items.add(mudItem, changes, "items");
     }
 
     public MudItem removeItem(String name) {
-        return MudItemMapHelper.removeItem(items, name);
+        MudItem mudItem = items.remove(name, changes, "items");
+        if (mudItem != null)
+            version++;
+        return mudItem;
+    }
+
+    // call after changing an item in the room in place, e.g. its contents
+    public void itemChanged(MudItem mudItem) {
+        items.changed(mudItem, changes, "items");
+        version++;
     }
 
     public boolean hasItem(String name) {
-        return MudItemMapHelper.hasItem(items, name);
+        return items.has(name);
     }
 
     public MudItem getItem(String name) {
-        return MudItemMapHelper.getItem(items, name);
+        return items.get(name);
     }
 
-    public HashSet<MudItem> getItemListByFullName(String name) {
-        return MudItemMapHelper.getItemListByFullName(items, name);
+    public Collection<MudItem> getItemListByFullName(String name) {
+        return items.getByFullName(name);
     }
 
-    public Map<String, MudItem> getItems() {
+    public MudItemMap getItems() {
         return items;
     }
 
     public boolean hasPlayer(MudPlayer player) {
-        if (players.contains(player))
-            return true;
-        return false;
+        return playerIds.contains(player.getId());
     }
 
     public void removePlayer(MudPlayer player) {
-        if (hasPlayer(player))
-            players.remove(player);
+        if (playerIds.remove(player.getId())) {
+            changes.pull("playerIds", player.getId());
+            version++;
+        }
     }
 
     public void addPlayer(MudPlayer player) {
-        if (!hasPlayer(player))
-            players.add(player);
+        if (playerIds.add(player.getId())) {
+            changes.addToSet("playerIds", player.getId());
+            version++;
+        }
     }
 
-    public HashSet<MudPlayer> getPlayers() {
-        return players;
+    // read only, load the players through the MudUnitOfWork
+    public Set<String> getPlayerIds() {
+        return Collections.unmodifiableSet(playerIds);
+    }
+
+    public int getPlayerCount() {
+        return playerIds.size();
     }
 
     public Date getLastVisited() {
@@ -129,6 +163,26 @@ public class MudRoom {
     }
 
     public void updateLastVisited() {
-        lastVisited = new Date();
+        lastVisited = MudActivity.now();
+        changes.max("lastVisited", lastVisited);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // the rendered description if nothing has changed since it was rendered,
+    // otherwise null
+    public String getDescriptionSSML() {
+        return descriptionSSMLVersion == version ? descriptionSSML : null;
+    }
+
+    public void setDescriptionSSML(String descriptionSSML, long version) {
+        this.descriptionSSML = descriptionSSML;
+        descriptionSSMLVersion = version;
+    }
+
+    public MudUpdate getChanges() {
+        return changes;
     }
 }
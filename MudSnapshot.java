@@ -0,0 +1,255 @@
+package mud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.InsertOptions;
+import com.mongodb.util.JSON;
+
+// the whole world in one file: every lock, room, player and item prototype
+// document as the bson mongo stores, each behind a byte saying which
+// collection it's from
+// "MUDS", version, then (collection byte, bson document)..., then a 0 byte
+// documents are written one at a time, from a mongo cursor or from the
+// entities of a MudMemoryStore, and read back through a memory mapped view of
+// the file, straight into mongo or into a MudMemoryStore
+// java mud.MudSnapshot dump|restore|print file
+public final class MudSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(MudSnapshot.class);
+
+    private static final int MAGIC = 0x4d554453;    // MUDS
+    private static final int VERSION = 1;
+
+    // in the order they're written, so locks exist before anything that
+    // references them when restoring, prototypes are referred to by id and
+    // came later so they're last, which keeps earlier snapshots readable
+    public static final String[] COLLECTIONS = { "locks", "rooms", "players", "prototypes" };
+
+    private static final int RESTORE_BATCH = 1000;
+
+    // what's done with each document read
+    public interface Visitor {
+        void document(String collection, DBObject document) throws IOException;
+    }
+
+    // writes a snapshot to a temporary file that replaces file when closed,
+    // so there's always a whole snapshot on disk
+    public static final class Writer {
+        private final File file;
+        private final File temp;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private final DefaultDBEncoder encoder;
+        private int count;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            temp = new File(file.getPath() + ".tmp");
+            fileOut = new FileOutputStream(temp);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+            encoder = new DefaultDBEncoder();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void write(String collection, DBObject document) throws IOException {
+            out.writeByte(code(collection));
+            out.write(encoder.encode(document));
+            count++;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        // the data is on disk before the rename, or a crash could leave a
+        // renamed snapshot with nothing in it, and the rename is on disk
+        // before this returns, so a snapshot that's been closed is there
+        // after a crash under its own name
+        public void close() throws IOException {
+            out.writeByte(0);
+            out.flush();
+            fileOut.getChannel().force(true);
+            out.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(file.getAbsoluteFile().getParentFile());
+        }
+
+        // give up, leaving any earlier snapshot in place
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // already failing
+            }
+            temp.delete();
+        }
+    }
+
+    private MudSnapshot() {
+    }
+
+    // not every platform can open a directory to sync it, there the rename
+    // is as durable as the file system makes it
+    private static void forceDirectory(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("can't sync directory {}", dir, e);
+        }
+    }
+
+    // every document in the database, one cursor per collection
+    public static int dump(DB db, File file) throws IOException {
+        Writer writer = new Writer(file);
+        try {
+            for (String collection : COLLECTIONS) {
+                DBCursor cursor = db.getCollection(collection).find().batchSize(RESTORE_BATCH);
+                try {
+                    while (cursor.hasNext())
+                        writer.write(collection, cursor.next());
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+        log.info("snapshot of {} documents written to {}", writer.getCount(), file);
+        return writer.getCount();
+    }
+
+    // hand every document in file to visitor, returns how many there were
+    public static int read(File file, Visitor visitor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too big to map in one piece");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC)
+                throw new IOException(file + " isn't a snapshot");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " is snapshot version " + version + ", expected " + VERSION);
+            DefaultDBDecoder decoder = new DefaultDBDecoder();
+            int count = 0;
+            byte code;
+            while ((code = buffer.get()) != 0) {
+                String collection = collection(code, file);
+                // bson lengths are little endian and include themselves
+                int length = buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(buffer.position());
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                byte[] bson = new byte[length];
+                buffer.get(bson);
+                visitor.document(collection, decoder.decode(bson, (DBCollection)null));
+                count++;
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // put everything back into a database, best empty, in bulk inserts
+    public static int restore(final DB db, File file) throws IOException {
+        final List<DBObject> batch = new ArrayList<DBObject>(RESTORE_BATCH);
+        final String[] batchCollection = new String[1];
+        int count = read(file, new Visitor() {
+            public void document(String collection, DBObject document) {
+                if (!collection.equals(batchCollection[0]) || batch.size() == RESTORE_BATCH) {
+                    insert(db, batchCollection[0], batch);
+                    batchCollection[0] = collection;
+                }
+                batch.add(document);
+            }
+        });
+        insert(db, batchCollection[0], batch);
+        log.info("restored {} documents from {}", count, file);
+        return count;
+    }
+
+    private static void insert(DB db, String collection, List<DBObject> batch) {
+        if (batch.isEmpty())
+            return;
+        db.getCollection(collection).insert(batch, new InsertOptions().continueOnError(false));
+        batch.clear();
+    }
+
+    // the byte a collection is written as, MudJournal uses the same ones
+    static byte code(String collection) {
+        for (int i = 0; i < COLLECTIONS.length; i++) {
+            if (COLLECTIONS[i].equals(collection))
+                return (byte)(i + 1);
+        }
+        throw new IllegalArgumentException("not a world collection: " + collection);
+    }
+
+    static String collection(byte code, File file) throws IOException {
+        if (code < 1 || code > COLLECTIONS.length)
+            throw new IOException("bad collection " + code + " in " + file);
+        return COLLECTIONS[code - 1];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("java mud.MudSnapshot dump|restore|print file");
+            System.exit(1);
+        }
+        File file = new File(args[1]);
+        long start = System.nanoTime();
+        int count;
+        if (args[0].equals("print")) {
+            count = read(file, new Visitor() {
+                public void document(String collection, DBObject document) {
+                    System.out.println(collection + " " + JSON.serialize(document));
+                }
+            });
+        } else {
+            // straight to mongo, not through an engine and whatever store it's configured with
+            MongoClient mongoClient = MudEngine.newMongoClient();
+            try {
+                DB db = MudEngine.getMorphia().createDatastore(mongoClient, MudEngine.MONGO_DATABASE).getDB();
+                if (args[0].equals("dump"))
+                    count = dump(db, file);
+                else if (args[0].equals("restore"))
+                    count = restore(db, file);
+                else
+                    throw new IllegalArgumentException("unknown command " + args[0]);
+            } finally {
+                mongoClient.close();
+            }
+        }
+        System.err.println(String.format("%d documents in %.1f ms", count, (System.nanoTime() - start) / 1e6));
+        System.exit(0);
+    }
+}
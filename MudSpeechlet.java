@@ -1,7 +1,5 @@
 package mud;
 
-import com.mongodb.MongoClient;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,15 +20,29 @@ import com.amazon.speech.ui.SimpleCard;
 public class MudSpeechlet implements Speechlet {
     private static final Logger log = LoggerFactory.getLogger(MudSpeechlet.class);
 
-    private MongoClient mongoClient;
-    private MudManager mudManager;    
+    // shared by every request, the per request state lives in the MudManager
+    // null is the process wide MudEngine.getDefault()
+    private final MudEngine engine;
+
+    public MudSpeechlet() {
+        this(null);
+    }
+
+    // serve from an engine that's already set up, rather than the default
+    // one on the local mongo
+    public MudSpeechlet(final MudEngine engine) {
+        this.engine = engine;
+    }
+
+    private MudEngine getEngine() {
+        return engine != null ? engine : MudEngine.getDefault();
+    }
 
-    private void initializeManager(final Session session) {
-    	if (mongoClient == null) {
-        	mongoClient = new MongoClient();
-        	mudManager = new MudManager(mongoClient, session);
-        	log.info("initializeManager: connected to mongoDB");
-    	}
+    // each request gets its own manager so concurrent requests never share output or players
+    private MudManager initializeManager(final Session session) {
+        MudManager mudManager = new MudManager(getEngine(), session);
+        mudManager.joinSession(session);
+        return mudManager;
     }
 
     @Override
@@ -46,10 +58,11 @@ public class MudSpeechlet implements Speechlet {
         log.info("onLaunch requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
-        initializeManager(session);
-        mudManager.joinSession(session);
+        MudManager mudManager = initializeManager(session);
 
-        return mudManager.getLaunchResponse(request, session);
+        SpeechletResponse response = mudManager.getLaunchResponse(request, session);
+        mudManager.flush();
+        return response;
     }
 
     @Override
@@ -58,42 +71,57 @@ public class MudSpeechlet implements Speechlet {
         log.info("onIntent requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
-        initializeManager(session);
-        mudManager.joinSession(session);
+        MudManager mudManager = initializeManager(session);
 
         Intent intent = request.getIntent();
         String intentName = (intent != null) ? intent.getName() : null;
 
         log.info("intentName = {}", intentName);
+        SpeechletResponse response;
         switch (intentName) {
             case "LookIntent":
-                return mudManager.getLookIntentResponse(intent, session);
+                response = mudManager.getLookIntentResponse(intent, session);
+                break;
             case "PutIntent":
-                return mudManager.getPutIntentResponse(intent, session);
+                response = mudManager.getPutIntentResponse(intent, session);
+                break;
             case "GetIntent":
-                return mudManager.getGetIntentResponse(intent, session);
+                response = mudManager.getGetIntentResponse(intent, session);
+                break;
             case "DropIntent":
-                return mudManager.getDropIntentResponse(intent, session);
+                response = mudManager.getDropIntentResponse(intent, session);
+                break;
             case "UseIntent":
-                return mudManager.getUseIntentResponse(intent, session);
+                response = mudManager.getUseIntentResponse(intent, session);
+                break;
             case "SearchIntent":
-                return mudManager.getSearchIntentResponse(intent, session);
+                response = mudManager.getSearchIntentResponse(intent, session);
+                break;
             case "HintIntent":
-                return mudManager.getHintIntentResponse(intent, session);
+                response = mudManager.getHintIntentResponse(intent, session);
+                break;
             case "IngestIntent":
-                return mudManager.getIngestIntentResponse(intent, session);
+                response = mudManager.getIngestIntentResponse(intent, session);
+                break;
             case "GoIntent":
-                return mudManager.getGoIntentResponse(intent, session);
+                response = mudManager.getGoIntentResponse(intent, session);
+                break;
             case "UnlockIntent":
-                return mudManager.getUnlockIntentResponse(intent, session);
+                response = mudManager.getUnlockIntentResponse(intent, session);
+                break;
             case "AMAZON.HelpIntent":
-                return mudManager.getHelpIntentReponse(intent, session);
+                response = mudManager.getHelpIntentReponse(intent, session);
+                break;
             case "AMAZON.StopIntent":
             case "AMAZON.CancelIntent":
-                return mudManager.getExitIntentResponse(intent, session);
+                response = mudManager.getExitIntentResponse(intent, session);
+                break;
             default:
                 throw new SpeechletException("Invalid intent:" + intent.getName());
         }
+        // everything the intent changed gets written once, here
+        mudManager.flush();
+        return response;
     }
 
     @Override
@@ -0,0 +1,55 @@
+package mud;
+
+// builds up the ssml for one response in a single buffer instead of
+// concatenating strings, each += on a String copies everything said so far
+public final class MudSsmlBuilder {
+    private final StringBuilder ssml;
+
+    public MudSsmlBuilder() {
+        ssml = new StringBuilder(256);
+    }
+
+    public MudSsmlBuilder append(String text) {
+        ssml.append(text);
+        return this;
+    }
+
+    public MudSsmlBuilder append(int number) {
+        ssml.append(number);
+        return this;
+    }
+
+    public MudSsmlBuilder append(char c) {
+        ssml.append(c);
+        return this;
+    }
+
+    // text wrapped in a paragraph, <p>text</p>
+    public MudSsmlBuilder paragraph(String text) {
+        ssml.append("<p>").append(text).append("</p>");
+        return this;
+    }
+
+    public MudSsmlBuilder format(String format, Object... args) {
+        ssml.append(String.format(format, args));
+        return this;
+    }
+
+    public int length() {
+        return ssml.length();
+    }
+
+    public boolean isEmpty() {
+        return ssml.length() == 0;
+    }
+
+    // the whole thing as a document for alexa, <speak>...</speak>
+    public String toSpeak() {
+        return new StringBuilder(ssml.length() + 15).append("<speak>").append(ssml).append("</speak>").toString();
+    }
+
+    @Override
+    public String toString() {
+        return ssml.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package mud;
+
+import java.lang.management.ManagementFactory;
+
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.User;
+
+// cold start, the time from the jvm starting to the first launch response,
+// on a fresh in memory world unless given --mongo
+// ./startup runs it with and without an AppCDS archive of the classes it loads
+public class MudStartupBenchmark {
+    public static void main(String[] args) throws Exception {
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        long start = System.nanoTime();
+        boolean mongo = args.length > 0 && args[0].equals("--mongo");
+
+        MudEngine engine;
+        if (mongo) {
+            engine = MudEngine.getDefault();
+        } else {
+            MudMemoryStore store = new MudMemoryStore(MudEngine.getMorphia());
+            Test.createWorld(store);
+            engine = new MudEngine(store);
+        }
+        long ready = System.nanoTime();
+
+        Session session = Session.builder()
+                .withSessionId("startup")
+                .withUser(User.builder().withUserId("startup").build())
+                .build();
+        new MudSpeechlet(engine).onLaunch(LaunchRequest.builder().withRequestId("startup").build(), session);
+        long launched = System.nanoTime();
+
+        System.out.println(String.format("jvm %d ms, engine %.1f ms, first launch %.1f ms, total %.1f ms",
+                jvmMillis, (ready - start) / 1e6, (launched - ready) / 1e6,
+                jvmMillis + (launched - start) / 1e6));
+        System.exit(0);
+    }
+}
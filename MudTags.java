@@ -26,6 +26,14 @@ public class MudTags {
         tags.add(tag);
     }
 
+    // a copy that can be changed without changing this
+    public MudTags copy() {
+        MudTags copy = new MudTags();
+        if (tags != null)
+            copy.tags = new HashSet<String>(tags);
+        return copy;
+    }
+
     public void removeTagIfExists(String tag) {
         if (tags != null)
             tags.remove(tag);
@@ -0,0 +1,440 @@
+package mud;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.types.ObjectId;
+
+// collects the players, rooms and locks changed while handling a single
+// request so that each dirty document is written at most once, when the
+// request is done, instead of after every individual change
+// rooms and locks are read through the shared MudWorldCache and written back
+// to it, players are always loaded fresh, once per request
+// references between documents, exit destinations, the players in a room and
+// access lists, are only ids, so nothing is loaded until it's asked for here
+// a dirty entity is written as a targeted update of just the fields recorded
+// in its MudUpdate, only new entities and ones marked for a rewrite are
+// saved whole
+public class MudUnitOfWork {
+    private static final Logger log = LoggerFactory.getLogger(MudUnitOfWork.class);
+
+    private final MudWorldStore store;
+    private final MudWorldCache cache;
+    private final MudActivity activity;     // null writes touches with the request
+
+    // players loaded during this request, so asking twice is one load
+    private final Map<String, MudPlayer> players;
+    private int documentsLoaded;
+
+    // keyed by id so two copies of the same document only get written once,
+    // entities that haven't been saved yet have no id and key on themselves
+    private final Map<Object, MudPlayer> dirtyPlayers;
+    private final Map<Object, MudRoom> dirtyRooms;
+    private final Map<Object, MudLock> dirtyLocks;
+    private final Set<Object> rewrites;
+
+    private boolean partialUpdates;
+    private MudVocabulary vocabulary;       // told about everything written, if set
+    private MudMailboxes mailboxes;         // null writes rooms and locks on this thread
+
+    public MudUnitOfWork(MudWorldStore store, MudWorldCache cache) {
+        this(store, cache, null);
+    }
+
+    public MudUnitOfWork(MudWorldStore store, MudWorldCache cache, MudActivity activity) {
+        this.store = store;
+        this.cache = cache;
+        this.activity = activity;
+        players = new HashMap<String, MudPlayer>();
+        dirtyPlayers = new LinkedHashMap<Object, MudPlayer>();
+        dirtyRooms = new LinkedHashMap<Object, MudRoom>();
+        dirtyLocks = new LinkedHashMap<Object, MudLock>();
+        rewrites = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        partialUpdates = true;
+    }
+
+    public MudWorldStore getStore() {
+        return store;
+    }
+
+    public MudPlayer getPlayer(String userId) {
+        MudPlayer player = players.get(userId);
+        if (player != null)
+            return player;
+        player = store.getPlayer(userId);
+        if (player == null)
+            return null;
+        documentsLoaded++;
+        return loaded(player);
+    }
+
+    // remember a player read from the store and resolve its room
+    private MudPlayer loaded(MudPlayer player) {
+        players.put(player.getId(), player);
+        if (player.getRoomId() != null) {
+            MudRoom room = getRoom(player.getRoomId());
+            if (room != null)
+                player.setRoom(room);
+            // just resolving the room isn't a change
+            player.getChanges().clear();
+        }
+        return player;
+    }
+
+    public MudRoom getRoom(ObjectId roomId) {
+        MudRoom room = cache.getRoom(roomId);
+        if (room == null) {
+            room = store.getRoom(roomId);
+            if (room != null) {
+                documentsLoaded++;
+                room = cache.putRoom(room);
+            }
+        }
+        return room;
+    }
+
+    // the players with these ids that exist, the ones not already loaded in
+    // this request are read from the store together in one go
+    public List<MudPlayer> getPlayers(Collection<String> userIds) {
+        List<String> missing = new ArrayList<String>();
+        for (String userId : userIds) {
+            if (!players.containsKey(userId))
+                missing.add(userId);
+        }
+        if (!missing.isEmpty()) {
+            for (MudPlayer player : store.getPlayers(missing)) {
+                documentsLoaded++;
+                loaded(player);
+            }
+        }
+        List<MudPlayer> found = new ArrayList<MudPlayer>(userIds.size());
+        for (String userId : userIds) {
+            MudPlayer player = players.get(userId);
+            if (player != null)
+                found.add(player);
+        }
+        return found;
+    }
+
+    // as above for rooms, the ones not in the cache are read together
+    public List<MudRoom> getRooms(Collection<ObjectId> roomIds) {
+        List<MudRoom> found = new ArrayList<MudRoom>(roomIds.size());
+        List<ObjectId> missing = new ArrayList<ObjectId>();
+        for (ObjectId roomId : roomIds) {
+            MudRoom room = cache.getRoom(roomId);
+            if (room != null)
+                found.add(room);
+            else
+                missing.add(roomId);
+        }
+        if (!missing.isEmpty()) {
+            for (MudRoom room : store.getRooms(missing)) {
+                documentsLoaded++;
+                found.add(cache.putRoom(room));
+            }
+        }
+        return found;
+    }
+
+    public List<MudPlayer> getRoomPlayers(MudRoom room) {
+        return getPlayers(room.getPlayerIds());
+    }
+
+    public List<MudPlayer> getAccessList(MudAccessControl accessControl) {
+        return getPlayers(accessControl.getAccessList());
+    }
+
+    // exit name -> destination, for every exit whose destination exists
+    public Map<String, MudRoom> getExitDestinations(MudRoom room) {
+        Map<String, ObjectId> destinationIds = new LinkedHashMap<String, ObjectId>();
+        for (Map.Entry<String, MudExit> entry : room.getExits().entrySet()) {
+            if (entry.getValue().getDestinationId() != null)
+                destinationIds.put(entry.getKey(), entry.getValue().getDestinationId());
+        }
+        Map<ObjectId, MudRoom> rooms = new HashMap<ObjectId, MudRoom>();
+        for (MudRoom destination : getRooms(new HashSet<ObjectId>(destinationIds.values())))
+            rooms.put(destination.getId(), destination);
+        Map<String, MudRoom> destinations = new LinkedHashMap<String, MudRoom>();
+        for (Map.Entry<String, ObjectId> entry : destinationIds.entrySet()) {
+            MudRoom destination = rooms.get(entry.getValue());
+            if (destination != null)
+                destinations.put(entry.getKey(), destination);
+        }
+        return destinations;
+    }
+
+    public MudLock getLock(ObjectId lockId) {
+        MudLock lock = cache.getLock(lockId);
+        if (lock == null) {
+            lock = store.getLock(lockId);
+            if (lock != null) {
+                documentsLoaded++;
+                lock = cache.putLock(lock);
+            }
+        }
+        return lock;
+    }
+
+    // the player did something, with an activity tracker it's buffered there,
+    // otherwise it's written with the rest of the request
+    public void touch(MudPlayer player) {
+        if (activity != null) {
+            activity.playerActive(player);
+        } else {
+            player.updateLastSeen();
+            player.incrementInteractions();
+            markDirty(player);
+        }
+    }
+
+    // call holding the room's monitor
+    public void touch(MudRoom room) {
+        if (activity != null && room.getId() != null) {
+            activity.roomVisited(room);
+        } else {
+            room.updateLastVisited();
+            markDirty(room);
+        }
+    }
+
+    // the entity's recorded changes get written at flush
+    public void markDirty(MudPlayer player) {
+        dirtyPlayers.put(player.getId() != null ? player.getId() : player, player);
+    }
+
+    public void markDirty(MudRoom room) {
+        dirtyRooms.put(room.getId() != null ? room.getId() : room, room);
+    }
+
+    public void markDirty(MudLock lock) {
+        dirtyLocks.put(lock.getId() != null ? lock.getId() : lock, lock);
+    }
+
+    // the whole entity gets written at flush, for new documents, a stored
+    // one whose changes aren't recorded field by field should call rewrite
+    // on its MudUpdate instead
+    public void markRewrite(MudPlayer player) {
+        markDirty(player);
+        rewrites.add(player);
+    }
+
+    public void markRewrite(MudRoom room) {
+        markDirty(room);
+        rewrites.add(room);
+    }
+
+    public void markRewrite(MudLock lock) {
+        markDirty(lock);
+        rewrites.add(lock);
+    }
+
+    // documents read from the store so far, cache hits don't count
+    public int getDocumentsLoaded() {
+        return documentsLoaded;
+    }
+
+    public void setVocabulary(MudVocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    public void setMailboxes(MudMailboxes mailboxes) {
+        this.mailboxes = mailboxes;
+    }
+
+    public boolean isDirty() {
+        return !dirtyPlayers.isEmpty() || !dirtyRooms.isEmpty() || !dirtyLocks.isEmpty();
+    }
+
+    // turning this off saves every dirty entity whole, the way it used to be
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
+    // write everything that changed, locks go first so anything a room or
+    // player references already exists
+    // rooms and locks are shared through the cache so their writes are built
+    // and queued while holding their monitor, that way they reach the store
+    // in the order they were built, the order the journal has them in
+    // with mailboxes only queueing the write holds the monitor, the store's
+    // round trip runs on the entity's mailbox, without them the write runs
+    // right there with the monitor held
+    // the cache only hears about a write once it's done, a write that fails
+    // takes the entity out of the cache, see failed
+    // players are private to the request and written here
+    // returns how many documents were written
+    public int flush() {
+        int written = 0;
+        List<Sent> pending = new ArrayList<Sent>();
+
+        for (MudLock lock : dirtyLocks.values()) {
+            synchronized (lock) {
+                Runnable write = prepareWrite(lock, lock.getId(), lock.getChanges());
+                if (write != null) {
+                    send(lock, lock.getId(), write, pending);
+                    written++;
+                }
+            }
+        }
+        await(pending);
+        for (MudRoom room : dirtyRooms.values()) {
+            synchronized (room) {
+                Runnable write = prepareWrite(room, room.getId(), room.getChanges());
+                if (write != null) {
+                    send(room, room.getId(), write, pending);
+                    written++;
+                }
+            }
+        }
+        for (MudPlayer player : dirtyPlayers.values()) {
+            Runnable write = prepareWrite(player, player.getId(), player.getChanges());
+            if (write != null) {
+                write.run();
+                written++;
+            }
+        }
+        await(pending);
+
+        if (written > 0)
+            log.info("flushed {} locks, {} rooms, {} players", dirtyLocks.size(), dirtyRooms.size(), dirtyPlayers.size());
+
+        dirtyLocks.clear();
+        dirtyRooms.clear();
+        dirtyPlayers.clear();
+        rewrites.clear();
+        return written;
+    }
+
+    // a room or lock write on its way to the store
+    private static final class Sent {
+        final Object entity;
+        final Future<?> future;
+
+        Sent(Object entity, Future<?> future) {
+            this.entity = entity;
+            this.future = future;
+        }
+    }
+
+    // call holding the entity's monitor, entities without an id yet are new
+    // to this request, nobody else can be writing them
+    private void send(Object entity, Object id, Runnable write, List<Sent> pending) {
+        Future<?> future;
+        if (mailboxes == null || id == null) {
+            FutureTask<Object> task = new FutureTask<Object>(write, null);
+            task.run();
+            future = task;
+        } else {
+            try {
+                future = mailboxes.submit(id, write);
+            } catch (RejectedExecutionException e) {
+                // never run, await counts it as failed
+                FutureTask<Object> task = new FutureTask<Object>(write, null);
+                task.cancel(false);
+                future = task;
+            }
+        }
+        pending.add(new Sent(entity, future));
+    }
+
+    // wait for every write, even after one fails, so each entity is either
+    // written back to the cache or taken out of it, then throw the first failure
+    private void await(List<Sent> pending) {
+        RuntimeException failure = null;
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                Sent sent = pending.get(i);
+                try {
+                    sent.future.get();
+                    written(sent.entity);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // whatever is still outstanding may or may not get written
+                    for (int j = i; j < pending.size(); j++)
+                        failed(pending.get(j).entity);
+                    throw new IllegalStateException("interrupted waiting for writes", e);
+                } catch (ExecutionException e) {
+                    failed(sent.entity);
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause()
+                                : new IllegalStateException("write failed", e.getCause());
+                    }
+                } catch (CancellationException e) {
+                    failed(sent.entity);
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+        } finally {
+            pending.clear();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void written(Object entity) {
+        if (entity instanceof MudRoom)
+            cache.roomWritten((MudRoom)entity);
+        else if (entity instanceof MudLock)
+            cache.lockWritten((MudLock)entity);
+    }
+
+    // the changes went with the write, so the entity in memory now has state
+    // the store doesn't: whoever still holds it writes it whole next time,
+    // and everyone else reads it from the store again
+    private void failed(Object entity) {
+        if (entity instanceof MudRoom) {
+            MudRoom room = (MudRoom)entity;
+            synchronized (room) {
+                room.getChanges().rewrite();
+            }
+            cache.invalidateRoom(room);
+        } else if (entity instanceof MudLock) {
+            MudLock lock = (MudLock)entity;
+            synchronized (lock) {
+                lock.getChanges().rewrite();
+            }
+            cache.invalidateLock(lock);
+        }
+    }
+
+    // the write of whatever changed, null if nothing did
+    // with an activity tracker, a stored document that has to be written
+    // whole is rewritten without the fields the tracker writes, its counts
+    // in the entity are behind the store's
+    private Runnable prepareWrite(Object entity, Object id, MudUpdate changes) {
+        Runnable write;
+        boolean isNew = id == null || rewrites.contains(entity);
+        if (isNew || !partialUpdates || changes.getNeedsRewrite()) {
+            if (vocabulary != null)
+                vocabulary.written(entity, changes, true);
+            if (isNew || activity == null)
+                write = store.prepareSave(entity);
+            else
+                write = store.prepareUpdate(entity, id, activity.rewrite(entity));
+        } else if (!changes.isEmpty()) {
+            if (vocabulary != null)
+                vocabulary.written(entity, changes, false);
+            write = store.prepareUpdate(entity, id, changes);
+        } else {
+            return null;
+        }
+        changes.clear();
+        return write;
+    }
+}
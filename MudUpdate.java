@@ -0,0 +1,196 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.mapping.MappedClass;
+import org.mongodb.morphia.mapping.MappedField;
+
+// the field level changes made to one document since it was last written
+// these turn into a single mongo update ($set, $unset, $addToSet, $push,
+// $pull, $inc, $max) on just the paths that changed, rather than rewriting the
+// whole document with every embedded item and exit in it
+// if two changes can't be expressed in one update, e.g. adding and pulling
+// on the same array, the update gives up and asks for a full rewrite instead
+public class MudUpdate {
+    private final Map<String, Object> sets;
+    private final Map<String, Object> unsets;
+    private final Map<String, List<Object>> addToSets;
+    private final Map<String, List<Object>> sortedPushes;
+    private final Map<String, List<Object>> pulls;
+    private final Map<String, Integer> incs;
+    private final Map<String, Date> maxes;
+    private boolean needsRewrite;
+
+    public MudUpdate() {
+        sets = new LinkedHashMap<String, Object>();
+        unsets = new LinkedHashMap<String, Object>();
+        addToSets = new LinkedHashMap<String, List<Object>>();
+        sortedPushes = new LinkedHashMap<String, List<Object>>();
+        pulls = new LinkedHashMap<String, List<Object>>();
+        incs = new LinkedHashMap<String, Integer>();
+        maxes = new LinkedHashMap<String, Date>();
+    }
+
+    // the last change to a path wins
+    public void set(String path, Object value) {
+        unsets.remove(path);
+        sets.put(path, value);
+    }
+
+    public void unset(String path) {
+        sets.remove(path);
+        unsets.put(path, "");
+    }
+
+    public void addToSet(String path, Object value) {
+        if (pulls.containsKey(path) || sortedPushes.containsKey(path))
+            needsRewrite = true;
+        append(addToSets, path, value);
+    }
+
+    // push onto an array kept in ascending order, the store sorts the whole
+    // array as it pushes, so one out of order is put right too
+    // only push what isn't already there
+    public void pushSorted(String path, Object value) {
+        if (pulls.containsKey(path) || addToSets.containsKey(path))
+            needsRewrite = true;
+        append(sortedPushes, path, value);
+    }
+
+    public void pull(String path, Object value) {
+        if (addToSets.containsKey(path) || sortedPushes.containsKey(path))
+            needsRewrite = true;
+        append(pulls, path, value);
+    }
+
+    public void inc(String path, int amount) {
+        Integer current = incs.get(path);
+        incs.put(path, current == null ? amount : current + amount);
+    }
+
+    public void max(String path, Date value) {
+        Date current = maxes.get(path);
+        if (current == null || value.after(current))
+            maxes.put(path, value);
+    }
+
+    // something changed that isn't tracked at the field level
+    public void rewrite() {
+        needsRewrite = true;
+    }
+
+    // path -> value being set, read only
+    public Map<String, Object> getSets() {
+        return Collections.unmodifiableMap(sets);
+    }
+
+    public boolean getNeedsRewrite() {
+        return needsRewrite;
+    }
+
+    public boolean isEmpty() {
+        return !needsRewrite && sets.isEmpty() && unsets.isEmpty() && addToSets.isEmpty()
+                && sortedPushes.isEmpty() && pulls.isEmpty() && incs.isEmpty() && maxes.isEmpty();
+    }
+
+    public void clear() {
+        sets.clear();
+        unsets.clear();
+        addToSets.clear();
+        sortedPushes.clear();
+        pulls.clear();
+        incs.clear();
+        maxes.clear();
+        needsRewrite = false;
+    }
+
+    // build the update document, embedded values are mapped with morphia
+    public DBObject toDBObject(Morphia morphia) {
+        BasicDBObject update = new BasicDBObject();
+        if (!sets.isEmpty()) {
+            BasicDBObject op = new BasicDBObject();
+            for (Map.Entry<String, Object> entry : sets.entrySet())
+                op.put(entry.getKey(), toMongo(morphia, entry.getValue()));
+            update.put("$set", op);
+        }
+        if (!unsets.isEmpty())
+            update.put("$unset", new BasicDBObject(unsets));
+        if (!addToSets.isEmpty()) {
+            BasicDBObject op = new BasicDBObject();
+            for (Map.Entry<String, List<Object>> entry : addToSets.entrySet())
+                op.put(entry.getKey(), new BasicDBObject("$each", toMongoList(morphia, entry.getValue())));
+            update.put("$addToSet", op);
+        }
+        if (!sortedPushes.isEmpty()) {
+            BasicDBObject op = new BasicDBObject();
+            for (Map.Entry<String, List<Object>> entry : sortedPushes.entrySet())
+                op.put(entry.getKey(), new BasicDBObject("$each", toMongoList(morphia, entry.getValue())).append("$sort", 1));
+            update.put("$push", op);
+        }
+        if (!pulls.isEmpty()) {
+            BasicDBObject op = new BasicDBObject();
+            for (Map.Entry<String, List<Object>> entry : pulls.entrySet())
+                op.put(entry.getKey(), toMongoList(morphia, entry.getValue()));
+            update.put("$pullAll", op);
+        }
+        if (!incs.isEmpty())
+            update.put("$inc", new BasicDBObject(incs));
+        if (!maxes.isEmpty())
+            update.put("$max", new BasicDBObject(maxes));
+        return update;
+    }
+
+    // make the $inc and $max changes to an entity held in memory, for stores
+    // that keep entities rather than documents, only top level int and Date
+    // fields are handled
+    public void applyTo(Morphia morphia, Object entity) {
+        if (needsRewrite || !sets.isEmpty() || !unsets.isEmpty() || !addToSets.isEmpty() || !sortedPushes.isEmpty()
+                || !pulls.isEmpty())
+            throw new UnsupportedOperationException("only $inc and $max can be applied to an entity");
+        MappedClass mappedClass = morphia.getMapper().getMappedClass(entity);
+        for (Map.Entry<String, Integer> entry : incs.entrySet()) {
+            MappedField field = mappedClass.getMappedField(entry.getKey());
+            Number current = (Number)field.getFieldValue(entity);
+            field.setFieldValue(entity, (current == null ? 0 : current.intValue()) + entry.getValue());
+        }
+        for (Map.Entry<String, Date> entry : maxes.entrySet()) {
+            MappedField field = mappedClass.getMappedField(entry.getKey());
+            Date current = (Date)field.getFieldValue(entity);
+            if (current == null || entry.getValue().after(current))
+                field.setFieldValue(entity, entry.getValue());
+        }
+    }
+
+    private static void append(Map<String, List<Object>> map, String path, Object value) {
+        List<Object> values = map.get(path);
+        if (values == null) {
+            values = new ArrayList<Object>(1);
+            map.put(path, values);
+        }
+        values.add(value);
+    }
+
+    private static BasicDBList toMongoList(Morphia morphia, List<Object> values) {
+        BasicDBList list = new BasicDBList();
+        for (Object value : values)
+            list.add(toMongo(morphia, value));
+        return list;
+    }
+
+    // embedded objects are mapped
+    private static Object toMongo(Morphia morphia, Object value) {
+        if (value instanceof MudItem || value instanceof MudExit)
+            return morphia.toDBObject(value);
+        return value;
+    }
+}
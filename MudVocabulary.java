@@ -0,0 +1,187 @@
+package mud;
+
+import java.io.File;
+import java.io.Writer;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the words alexa listens for in each custom slot type, the files in
+// speechAssets/customSlotTypes, kept up to date as things are written
+// instead of by walking every room and player
+// the unit of work hands over everything it writes, whole rooms and players
+// when they're saved and single items and exits when they're set, so a new
+// or renamed item, exit or lock is picked up as it's written
+// values are only ever added, a name nothing answers to any more costs alexa
+// nothing, and each slot type is kept sorted so its file can be written
+// straight from the index, only the files that gained something are written
+public final class MudVocabulary {
+    private static final Logger log = LoggerFactory.getLogger(MudVocabulary.class);
+
+    public static final String OBJECTS = "LIST_OF_OBJECTS";
+    public static final String CONTAINERS = "LIST_OF_CONTAINERS";
+    public static final String INGESTABLES = "LIST_OF_INGESTABLES";
+    public static final String EXITS = "LIST_OF_EXITS";
+    public static final String LOCKABLES = "LIST_OF_LOCKABLES";
+
+    private static final class SlotType {
+        final ConcurrentSkipListSet<String> values = new ConcurrentSkipListSet<String>();
+        final AtomicBoolean changed = new AtomicBoolean();
+    }
+
+    private final Map<String, SlotType> slotTypes;
+
+    public MudVocabulary() {
+        slotTypes = new LinkedHashMap<String, SlotType>();
+        for (String name : new String[] { OBJECTS, CONTAINERS, INGESTABLES, EXITS, LOCKABLES })
+            slotTypes.put(name, new SlotType());
+    }
+
+    // start from the slot files already in dir, missing ones start empty
+    public static MudVocabulary load(File dir) throws IOException {
+        MudVocabulary vocabulary = new MudVocabulary();
+        for (Map.Entry<String, SlotType> entry : vocabulary.slotTypes.entrySet()) {
+            File file = new File(dir, entry.getKey() + ".txt");
+            if (!file.exists())
+                continue;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty())
+                        entry.getValue().values.add(line.trim());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return vocabulary;
+    }
+
+    // the values of one slot type, sorted, don't change it
+    public Set<String> getValues(String slotType) {
+        return slot(slotType).values;
+    }
+
+    public void add(String slotType, String value) {
+        SlotType slot = slot(slotType);
+        if (value != null && !slot.values.contains(value) && slot.values.add(value))
+            slot.changed.set(true);
+    }
+
+    // everything a whole room or player document holds
+    public void addRoom(MudRoom room) {
+        addItems(room.getItems());
+        for (Map.Entry<String, MudExit> entry : room.getExits().entrySet())
+            addExit(entry.getKey(), entry.getValue());
+    }
+
+    public void addPlayer(MudPlayer player) {
+        addItems(player.getItems());
+    }
+
+    // every name the items answer to, key, key 2, ...
+    public void addItems(MudItemMap items) {
+        for (String name : items.getNames()) {
+            MudItem item = items.get(name);
+            add(OBJECTS, name);
+            if (item.getIsIngestable())
+                add(INGESTABLES, name);
+            if (item.hasLock())
+                add(LOCKABLES, name);
+            if (item.getIsContainer())
+                add(CONTAINERS, name);
+        }
+        for (MudItem item : items.values())
+            addItem(item);
+    }
+
+    public void addItem(MudItem item) {
+        add(OBJECTS, item.getShortName());
+        if (item.getIsIngestable())
+            add(INGESTABLES, item.getShortName());
+        if (item.hasLock())
+            add(LOCKABLES, item.getShortName());
+        if (item.getIsContainer()) {
+            add(CONTAINERS, item.getShortName());
+            addItems(item.getContents());
+        }
+    }
+
+    public void addExit(String name, MudExit exit) {
+        add(EXITS, name);
+        if (exit.hasLock())
+            add(LOCKABLES, name);
+    }
+
+    // what the unit of work is about to write, a whole entity or just changes
+    public void written(Object entity, MudUpdate changes, boolean whole) {
+        if (whole) {
+            if (entity instanceof MudRoom)
+                addRoom((MudRoom)entity);
+            else if (entity instanceof MudPlayer)
+                addPlayer((MudPlayer)entity);
+            return;
+        }
+        for (Map.Entry<String, Object> entry : changes.getSets().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof MudItem) {
+                addItem((MudItem)value);
+            } else if (value instanceof MudExit) {
+                String path = entry.getKey();
+                addExit(path.substring(path.lastIndexOf('.') + 1), (MudExit)value);
+            }
+        }
+    }
+
+    // write the slot types that gained values since they were last written,
+    // one value per line, returns how many files were written
+    public int write(File dir) throws IOException {
+        int written = 0;
+        for (Map.Entry<String, SlotType> entry : slotTypes.entrySet()) {
+            SlotType slot = entry.getValue();
+            if (!slot.changed.getAndSet(false))
+                continue;
+            File file = new File(dir, entry.getKey() + ".txt");
+            File temp = new File(dir, entry.getKey() + ".txt.tmp");
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8));
+            try {
+                for (String value : slot.values) {
+                    writer.write(value);
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                slot.changed.set(true);
+                throw e;
+            } finally {
+                writer.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written++;
+            log.info("wrote {} values to {}", slot.values.size(), file);
+        }
+        return written;
+    }
+
+    private SlotType slot(String slotType) {
+        SlotType slot = slotTypes.get(slotType);
+        if (slot == null)
+            throw new IllegalArgumentException("unknown slot type " + slotType);
+        return slot;
+    }
+}
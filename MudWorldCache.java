@@ -0,0 +1,155 @@
+package mud;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.types.ObjectId;
+
+// bounded in memory cache of rooms and locks shared by every request
+// entries are evicted least recently used first once a map is full, and an
+// entity whose write failed is taken out, see MudUnitOfWork.failed
+// a room's version, what reusing its rendered description is checked
+// against, is kept on the room itself, see MudRoom.getVersion
+// cached entities are shared between requests, anything changing or walking
+// a cached room must hold the room's monitor while doing so
+public class MudWorldCache {
+    private static final Logger log = LoggerFactory.getLogger(MudWorldCache.class);
+
+    public static final int DEFAULT_MAX_ROOMS = 10000;
+    public static final int DEFAULT_MAX_LOCKS = 10000;
+
+    private static final class LruMap<T> extends LinkedHashMap<ObjectId, T> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, T> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private final LruMap<MudRoom> rooms;
+    private final LruMap<MudLock> locks;
+    private long hits;
+    private long misses;
+
+    public MudWorldCache() {
+        this(DEFAULT_MAX_ROOMS, DEFAULT_MAX_LOCKS);
+    }
+
+    public MudWorldCache(int maxRooms, int maxLocks) {
+        rooms = new LruMap<MudRoom>(maxRooms);
+        locks = new LruMap<MudLock>(maxLocks);
+    }
+
+    public synchronized MudRoom getRoom(ObjectId roomId) {
+        return hit(rooms.get(roomId));
+    }
+
+    // add a freshly loaded room, if another request beat us to it the copy
+    // already in the cache wins and is returned instead
+    public synchronized MudRoom putRoom(MudRoom room) {
+        MudRoom cached = rooms.get(room.getId());
+        if (cached != null)
+            return cached;
+        shareLocks(room);
+        rooms.put(room.getId(), room);
+        return room;
+    }
+
+    // a room was written, it's now the most recently used
+    public synchronized void roomWritten(MudRoom room) {
+        written(rooms, room.getId(), room);
+    }
+
+    // take the room out, unless the cache has since moved on to another copy
+    public synchronized void invalidateRoom(MudRoom room) {
+        if (rooms.get(room.getId()) == room)
+            rooms.remove(room.getId());
+    }
+
+    public synchronized MudLock getLock(ObjectId lockId) {
+        return hit(locks.get(lockId));
+    }
+
+    public synchronized MudLock putLock(MudLock lock) {
+        MudLock cached = locks.get(lock.getId());
+        if (cached != null)
+            return cached;
+        locks.put(lock.getId(), lock);
+        return lock;
+    }
+
+    public synchronized void lockWritten(MudLock lock) {
+        written(locks, lock.getId(), lock);
+    }
+
+    // the rooms sharing the lock go too, so the next copy loaded is the one
+    // every room uses
+    public synchronized void invalidateLock(MudLock lock) {
+        if (locks.get(lock.getId()) != lock)
+            return;
+        locks.remove(lock.getId());
+        Iterator<MudRoom> i = rooms.values().iterator();
+        while (i.hasNext()) {
+            for (MudExit mudExit : i.next().getExits().values()) {
+                if (mudExit.getLock() == lock) {
+                    i.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        rooms.clear();
+        locks.clear();
+    }
+
+    public synchronized String getStats() {
+        return String.format("rooms = %d, locks = %d, hits = %d, misses = %d",
+                rooms.size(), locks.size(), hits, misses);
+    }
+
+    private <T> T hit(T entity) {
+        if (entity == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entity;
+    }
+
+    private <T> void written(LruMap<T> map, ObjectId id, T entity) {
+        T cached = map.get(id);
+        // someone wrote a copy we weren't handing out, it's now the current one
+        if (cached != null && cached != entity)
+            log.warn("replacing cached copy of {}", id);
+        map.put(id, entity);
+    }
+
+    // every room using a lock should see the same lock instance so locking
+    // or unlocking it is seen everywhere at once
+    private void shareLocks(MudRoom room) {
+        for (MudExit mudExit : room.getExits().values()) {
+            MudLock lock = mudExit.getLock();
+            if (lock == null || lock.getId() == null)
+                continue;
+            MudLock cached = locks.get(lock.getId());
+            if (cached != null)
+                mudExit.setLock(cached);
+            else
+                locks.put(lock.getId(), lock);
+        }
+    }
+}
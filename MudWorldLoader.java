@@ -0,0 +1,328 @@
+package mud;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+// builds a world from a json world file and writes it in one pass
+// the file has item prototypes, locks and rooms, each with a name the rest
+// of the file uses to refer to it:
+//
+//   { "prototypes": [ { "name": "brass key", "shortName": "key", "fullName": "brass key",
+//                       "description": "...", "hint": "...", "getable": true,
+//                       "notGetableMessage": "...", "container": false, "usable": false,
+//                       "ingestable": false, "usesLeft": 3, "tags": [ ... ] } ],
+//     "locks": [ { "name": "door lock", "description": "A simple lock.",
+//                  "lockedMessage": "...", "restricted": true, "shared": false,
+//                  "tags": [ ... ] } ],
+//     "rooms": [ { "name": "start", "id": "000000000000000000000000",
+//                  "description": "...", "hint": "...",
+//                  "items": [ { "shortName": "chest", "fullName": "wooden chest",
+//                               "description": "...", "hint": "...",
+//                               "getable": false, "notGetableMessage": "...",
+//                               "container": true, "usable": false,
+//                               "ingestable": false, "usesLeft": 3,
+//                               "lock": "door lock", "tags": [ ... ],
+//                               "contents": [ more items ] },
+//                             { "prototype": "brass key", "usesLeft": 1 } ],
+//                  "exits": { "north": { "to": "ledge", "description": "...",
+//                                        "lock": "door lock", "tags": [ ... ] } } } ] }
+//
+// only the names are required, anything else left out keeps the entity's
+// default, an item of a prototype needs no name of its own and stores only
+// what it's given besides the prototype, and a room without an id is given one
+// the items of a prototype point at the loader's own, which the store
+// registers when they're written
+// every room and lock gets its id before anything is wired up, so exits and
+// locks are resolved in memory and each document is written exactly once
+public final class MudWorldLoader {
+    private static final Logger log = LoggerFactory.getLogger(MudWorldLoader.class);
+
+    private final String source;
+    private final Map<String, MudItemPrototype> prototypes;
+    private final Map<String, MudLock> locks;
+    private final Map<String, MudRoom> rooms;
+
+    private MudWorldLoader(String source) {
+        this.source = source;
+        prototypes = new LinkedHashMap<String, MudItemPrototype>();
+        locks = new LinkedHashMap<String, MudLock>();
+        rooms = new LinkedHashMap<String, MudRoom>();
+    }
+
+    public static MudWorldLoader load(File file) throws IOException {
+        return load(new FileInputStream(file), file.getPath());
+    }
+
+    // a world file on the classpath, e.g. /worlds/start.json
+    public static MudWorldLoader loadResource(String name) throws IOException {
+        InputStream in = MudWorldLoader.class.getResourceAsStream(name);
+        if (in == null)
+            throw new IOException("no world file " + name + " on the classpath");
+        return load(in, name);
+    }
+
+    private static MudWorldLoader load(InputStream in, String source) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try {
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) > 0)
+                text.append(buffer, 0, n);
+        } finally {
+            reader.close();
+        }
+        MudWorldLoader loader = new MudWorldLoader(source);
+        loader.build((DBObject)JSON.parse(text.toString()));
+        return loader;
+    }
+
+    // load world files into the mongo world: java mud.MudWorldLoader file...
+    public static void main(String[] args) throws IOException {
+        MudWorldStore store = MudEngine.getDefault().getStore();
+        for (String arg : args) {
+            long start = System.nanoTime();
+            MudWorldLoader loader = load(new File(arg));
+            loader.write(store);
+            System.out.println(String.format("%s: %d rooms, %d locks, %d prototypes in %.1f ms", arg, loader.rooms.size(),
+                    loader.locks.size(), loader.prototypes.size(), (System.nanoTime() - start) / 1e6));
+        }
+        System.exit(0);
+    }
+
+    public Map<String, MudItemPrototype> getPrototypes() {
+        return prototypes;
+    }
+
+    public Map<String, MudLock> getLocks() {
+        return locks;
+    }
+
+    public Map<String, MudRoom> getRooms() {
+        return rooms;
+    }
+
+    // every prototype, lock, then room, as new documents in as few round
+    // trips as the store manages
+    public void write(MudWorldStore store) {
+        List<Object> entities = new ArrayList<Object>(prototypes.size() + locks.size() + rooms.size());
+        entities.addAll(prototypes.values());
+        entities.addAll(locks.values());
+        entities.addAll(rooms.values());
+        store.saveAll(entities);
+        // written whole, so nothing recorded while building is left to write
+        for (MudLock lock : locks.values())
+            lock.getChanges().clear();
+        for (MudRoom room : rooms.values())
+            room.getChanges().clear();
+        log.info("wrote {} prototypes, {} locks, {} rooms from {}", prototypes.size(), locks.size(), rooms.size(), source);
+    }
+
+    public void addTo(MudVocabulary vocabulary) {
+        for (MudRoom room : rooms.values())
+            vocabulary.addRoom(room);
+    }
+
+    private void build(DBObject world) {
+        // prototypes don't refer to anything, so they're made first
+        for (DBObject spec : list(world, "prototypes", "world")) {
+            String name = required(spec, "name", "prototype");
+            MudItemPrototype prototype = buildPrototype(name, spec);
+            if (prototypes.put(name, prototype) != null)
+                throw error("prototype " + name + " is defined twice");
+        }
+
+        // create and name everything else first so references can go either way
+        List<DBObject> lockSpecs = list(world, "locks", "world");
+        List<DBObject> roomSpecs = list(world, "rooms", "world");
+        for (DBObject spec : lockSpecs) {
+            String name = required(spec, "name", "lock");
+            MudLock lock = new MudLock();
+            lock.setId(new ObjectId());
+            if (locks.put(name, lock) != null)
+                throw error("lock " + name + " is defined twice");
+        }
+        for (DBObject spec : roomSpecs) {
+            String name = required(spec, "name", "room");
+            MudRoom room = new MudRoom();
+            String id = (String)spec.get("id");
+            room.setId(id != null ? new ObjectId(id) : new ObjectId());
+            if (rooms.put(name, room) != null)
+                throw error("room " + name + " is defined twice");
+        }
+
+        for (DBObject spec : lockSpecs)
+            buildLock(locks.get((String)spec.get("name")), spec);
+        for (DBObject spec : roomSpecs)
+            buildRoom(rooms.get((String)spec.get("name")), spec);
+    }
+
+    private void buildLock(MudLock lock, DBObject spec) {
+        String name = (String)spec.get("name");
+        if (spec.containsField("description"))
+            lock.setDescription((String)spec.get("description"));
+        if (spec.containsField("lockedMessage"))
+            lock.setLockedMessage((String)spec.get("lockedMessage"));
+        if (spec.containsField("restricted"))
+            lock.access.setIsRestricted((Boolean)spec.get("restricted"));
+        if (spec.containsField("shared"))
+            lock.access.setIsShared((Boolean)spec.get("shared"));
+        for (String tag : strings(spec, "tags", "lock " + name))
+            lock.tags.addTag(tag);
+    }
+
+    private void buildRoom(MudRoom room, DBObject spec) {
+        String name = (String)spec.get("name");
+        if (spec.containsField("description"))
+            room.setDescription((String)spec.get("description"));
+        if (spec.containsField("hint"))
+            room.setHint((String)spec.get("hint"));
+        for (DBObject itemSpec : list(spec, "items", "room " + name))
+            room.addItem(buildItem(itemSpec, "room " + name));
+
+        DBObject exits = (DBObject)spec.get("exits");
+        if (exits == null)
+            return;
+        for (String exitName : exits.keySet()) {
+            String where = "room " + name + " exit " + exitName;
+            DBObject exitSpec = (DBObject)exits.get(exitName);
+            MudExit exit = new MudExit();
+            String to = required(exitSpec, "to", where);
+            MudRoom destination = rooms.get(to);
+            if (destination == null)
+                throw error(where + " goes to unknown room " + to);
+            exit.setDestination(destination);
+            if (exitSpec.containsField("description"))
+                exit.setDescription((String)exitSpec.get("description"));
+            if (exitSpec.containsField("lock"))
+                exit.setLock(lock((String)exitSpec.get("lock"), where));
+            for (String tag : strings(exitSpec, "tags", where))
+                exit.tags.addTag(tag);
+            room.addExit(exitName, exit);
+        }
+    }
+
+    private MudItemPrototype buildPrototype(String name, DBObject spec) {
+        String where = "prototype " + name;
+        MudItemPrototype prototype = new MudItemPrototype(name);
+        prototype.setShortName(required(spec, "shortName", where));
+        prototype.setFullName((String)spec.get("fullName"));
+        prototype.setDescription((String)spec.get("description"));
+        prototype.setHint((String)spec.get("hint"));
+        prototype.setNotGetableMessage((String)spec.get("notGetableMessage"));
+        // the flags are worked out the way an item's are
+        MudItem flags = new MudItem();
+        setFlags(flags, spec);
+        prototype.setFlags(flags.getFlags());
+        if (spec.containsField("usesLeft"))
+            prototype.setUsesLeft(((Number)spec.get("usesLeft")).intValue());
+        for (String tag : strings(spec, "tags", where))
+            prototype.addTag(tag);
+        return prototype;
+    }
+
+    private MudItem buildItem(DBObject spec, String where) {
+        MudItem item;
+        if (spec.containsField("prototype")) {
+            String name = (String)spec.get("prototype");
+            MudItemPrototype prototype = prototypes.get(name);
+            if (prototype == null)
+                throw error("item in " + where + " has unknown prototype " + name);
+            item = prototype.newItem();
+            if (spec.containsField("shortName"))
+                item.setShortName((String)spec.get("shortName"));
+            if (spec.containsField("fullName"))
+                item.setFullName((String)spec.get("fullName"));
+            if (spec.containsField("description"))
+                item.setDescription((String)spec.get("description"));
+            where = item.getShortName() + " in " + where;
+        } else {
+            String shortName = required(spec, "shortName", "item in " + where);
+            item = MudManagerHelper.itemNew(shortName, (String)spec.get("fullName"), (String)spec.get("description"));
+            where = shortName + " in " + where;
+        }
+        if (spec.containsField("hint"))
+            item.setHint((String)spec.get("hint"));
+        if (spec.containsField("notGetableMessage"))
+            item.setNotGetableMessage((String)spec.get("notGetableMessage"));
+        setFlags(item, spec);
+        if (spec.containsField("usesLeft"))
+            item.setUsesLeft(((Number)spec.get("usesLeft")).intValue());
+        if (spec.containsField("lock"))
+            item.setLock(lock((String)spec.get("lock"), where));
+        for (String tag : strings(spec, "tags", where))
+            item.addTag(tag);
+        List<DBObject> contents = list(spec, "contents", where);
+        if (!contents.isEmpty() && !item.getIsContainer())
+            throw error(where + " has contents but isn't a container");
+        for (DBObject contentSpec : contents)
+            item.addContent(buildItem(contentSpec, where));
+        return item;
+    }
+
+    private static void setFlags(MudItem item, DBObject spec) {
+        if (spec.containsField("getable"))
+            item.setIsGetable((Boolean)spec.get("getable"));
+        if (spec.containsField("container"))
+            item.setIsContainer((Boolean)spec.get("container"));
+        if (spec.containsField("usable"))
+            item.setIsUsable((Boolean)spec.get("usable"));
+        if (spec.containsField("ingestable"))
+            item.setIsIngestable((Boolean)spec.get("ingestable"));
+    }
+
+    private MudLock lock(String name, String where) {
+        MudLock lock = locks.get(name);
+        if (lock == null)
+            throw error(where + " has unknown lock " + name);
+        return lock;
+    }
+
+    private String required(DBObject spec, String field, String where) {
+        Object value = spec.get(field);
+        if (!(value instanceof String))
+            throw error(where + " needs a " + field);
+        return (String)value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<DBObject> list(DBObject spec, String field, String where) {
+        Object value = spec.get(field);
+        if (value == null)
+            return new ArrayList<DBObject>(0);
+        if (!(value instanceof List))
+            throw error(where + " " + field + " isn't a list");
+        return (List<DBObject>)value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> strings(DBObject spec, String field, String where) {
+        Object value = spec.get(field);
+        if (value == null)
+            return new ArrayList<String>(0);
+        if (!(value instanceof List))
+            throw error(where + " " + field + " isn't a list");
+        return (List<String>)value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(source + ": " + message);
+    }
+}
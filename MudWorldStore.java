@@ -0,0 +1,53 @@
+package mud;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Collection;
+
+import org.bson.types.ObjectId;
+
+// where players, rooms and locks are kept between requests
+// MudMorphiaStore keeps them in mongo, MudMemoryStore in this process
+// implementations are shared by every request so they have to be thread safe
+public interface MudWorldStore {
+    // null if there isn't one
+    MudPlayer getPlayer(String id);
+
+    MudRoom getRoom(ObjectId id);
+
+    MudLock getLock(ObjectId id);
+
+    // every one of ids that exists, in no particular order, read in a single
+    // round trip where the store has round trips
+    List<MudPlayer> getPlayers(Collection<String> ids);
+
+    List<MudRoom> getRooms(Collection<ObjectId> ids);
+
+    // the item prototypes of this store's world, every item read from the
+    // store already points at its own, prototypes are registered as they're
+    // written
+    MudItemPrototypes getPrototypes();
+
+    // write the whole entity, rooms and locks without an id are given one
+    void save(Object entity);
+
+    // write many new entities, in order, in as few round trips as the store
+    // can, they need their ids already, e.g. from MudWorldLoader
+    void saveAll(List<?> entities);
+
+    // write just the changes recorded for an entity that has been saved before
+    void update(Object entity, Object id, MudUpdate changes);
+
+    // save and update split in two: what's to be written is worked out now,
+    // while the caller holds the entity's monitor, and written when the
+    // returned task is run, which can be later and on another thread
+    Runnable prepareSave(Object entity);
+
+    Runnable prepareUpdate(Object entity, Object id, MudUpdate changes);
+
+    // write a batch of changes, id -> changes, to documents of one type that
+    // may or may not be loaded anywhere, in one round trip where the store
+    // has round trips, ids without a document are skipped
+    // only used for $inc and $max, see MudActivity
+    void updateAll(Class<?> type, Map<Object, MudUpdate> updates);
+}
@@ -0,0 +1,394 @@
+package mud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoException;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+
+// writes to mongo that a request doesn't wait for: each write is appended to
+// the MudJournal, the request waits for the journal to sync, which is a
+// local fsync shared with whoever else is waiting, and answers, and a
+// background thread applies the writes to mongo in ordered bulk writes of up
+// to BATCH at a time
+// every document written this way carries the sequence number of the last
+// journal record applied to it, and a record is only applied to a document
+// with an older one, so applying a record twice does nothing and a restart
+// replays the journal from the last batch it knows was applied, see recover
+// until its writes are applied reads get the entity as its latest write
+// left it, so a request never sees a document older than what an earlier
+// request wrote, and it's kept as a document, so each read makes its own
+// copy instead of sharing an entity another request is changing
+// if mongo goes away writes queue up, to MAX_QUEUED, and then requests wait
+// waiting is on a ReentrantLock rather than a monitor, so a request on a
+// virtual thread gives up its carrier while it waits
+// the journal keeps every segment with records after the checkpoint, so
+// recover always has them
+public final class MudWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(MudWriteBehind.class);
+
+    public static final String SEQ = "journalSeq";
+
+    private static final int BATCH = 500;
+    private static final int MAX_QUEUED = 100000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final String CHECKPOINT = "applied";
+
+    private static final class Write {
+        final long seq;
+        final String collection;
+        final Object id;
+        final DBObject document;    // the whole document, or
+        final DBObject update;      // the update to it
+        final DBObject state;       // what reads get until this is applied, or null
+
+        Write(long seq, String collection, Object id, DBObject document, DBObject update, DBObject state) {
+            this.seq = seq;
+            this.collection = collection;
+            this.id = id;
+            this.document = document;
+            this.update = update;
+            this.state = state;
+        }
+    }
+
+    // an entity with writes that haven't been applied yet
+    private static final class Pending {
+        DBObject state;
+        int writes;
+    }
+
+    private final DB db;
+    private final MudJournal journal;
+    private final File checkpoint;
+
+    // all guarded by lock
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    private final Condition notEmpty;
+    private final ArrayDeque<Write> queue;
+    private final Map<Object, Pending> pending;
+    private Thread applier;
+    private boolean closing;
+
+    private final AtomicLong applied;
+    private final AtomicLong batches;
+    private volatile int maxQueued;
+
+    public MudWriteBehind(DB db, MudJournal journal) {
+        this.db = db;
+        this.journal = journal;
+        journal.retainAfter(0);
+        checkpoint = new File(journal.getDir(), CHECKPOINT);
+        lock = new ReentrantLock();
+        notFull = lock.newCondition();
+        notEmpty = lock.newCondition();
+        queue = new ArrayDeque<Write>();
+        pending = new HashMap<Object, Pending>();
+        applied = new AtomicLong();
+        batches = new AtomicLong();
+    }
+
+    public MudJournal getJournal() {
+        return journal;
+    }
+
+    // append the document to the journal and queue it to be saved, returns
+    // the sequence number to sync
+    // state is the whole document as of this write, for reads until it's
+    // applied, or null, it mustn't change after this
+    public long save(String collection, Object id, DBObject document, DBObject state) {
+        lock.lock();
+        try {
+            waitForRoom();
+            long seq = journal.save(collection, document);
+            add(new Write(seq, collection, id, document, null, state));
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long update(String collection, Object id, DBObject update, DBObject state) {
+        lock.lock();
+        try {
+            waitForRoom();
+            long seq = journal.update(collection, id, update);
+            add(new Write(seq, collection, id, null, update, state));
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // call holding lock
+    private void waitForRoom() {
+        try {
+            while (queue.size() >= MAX_QUEUED && !closing)
+                notFull.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting to write", e);
+        }
+    }
+
+    // call holding lock
+    private void add(Write write) {
+        if (closing)
+            throw new IllegalStateException("write behind is closed");
+        queue.add(write);
+        if (queue.size() > maxQueued)
+            maxQueued = queue.size();
+        if (write.state != null) {
+            Pending entry = pending.get(write.id);
+            if (entry == null) {
+                entry = new Pending();
+                pending.put(write.id, entry);
+            }
+            entry.state = write.state;
+            entry.writes++;
+        }
+        notEmpty.signal();
+    }
+
+    // the document with id as its latest write left it, if it has writes
+    // still to be applied, or null, it's shared so don't change it
+    public DBObject getPending(Object id) {
+        lock.lock();
+        try {
+            Pending entry = pending.get(id);
+            return entry != null ? entry.state : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // apply everything in the journal after the last batch known to have
+    // been applied, before starting, the records already in mongo are skipped
+    public void recover() throws IOException {
+        final long from = readCheckpoint();
+        journal.retainAfter(from);
+        final List<Write> batch = new ArrayList<Write>(BATCH);
+        final int[] count = new int[1];
+        MudJournal.readAfter(journal.getDir(), from, new MudJournal.Visitor() {
+            public void save(long seq, long time, String collection, DBObject document) {
+                add(new Write(seq, collection, document.get("_id"), document, null, null));
+            }
+
+            public void update(long seq, long time, String collection, Object id, DBObject update) {
+                add(new Write(seq, collection, id, null, update, null));
+            }
+
+            private void add(Write write) {
+                batch.add(write);
+                count[0]++;
+                if (batch.size() == BATCH) {
+                    applyAll(batch);
+                    batch.clear();
+                }
+            }
+        });
+        applyAll(batch);
+        log.info("recovered {} journal records after {} from {}", count[0], from, journal.getDir());
+    }
+
+    public void start() {
+        lock.lock();
+        try {
+            if (applier != null)
+                throw new IllegalStateException("write behind already started");
+            applier = new Thread(new Runnable() {
+                public void run() {
+                    apply();
+                }
+            }, "mud-write-behind");
+            applier.setDaemon(true);
+            applier.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // apply what's queued and stop, whatever can't be applied is still in
+    // the journal for the next start
+    public void close() throws InterruptedException {
+        Thread stopping;
+        lock.lock();
+        try {
+            closing = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+            stopping = applier;
+        } finally {
+            lock.unlock();
+        }
+        if (stopping != null)
+            stopping.join(60000);
+    }
+
+    private void apply() {
+        List<Write> batch = new ArrayList<Write>(BATCH);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closing)
+                    notEmpty.await();
+                if (queue.isEmpty())
+                    return;
+                while (batch.size() < BATCH && !queue.isEmpty())
+                    batch.add(queue.poll());
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (!applyAll(batch))
+                return;
+            lock.lock();
+            try {
+                for (Write write : batch) {
+                    if (write.state == null)
+                        continue;
+                    Pending entry = pending.get(write.id);
+                    if (--entry.writes == 0)
+                        pending.remove(write.id);
+                }
+            } finally {
+                lock.unlock();
+            }
+            writeCheckpoint(batch.get(batch.size() - 1).seq);
+            batch.clear();
+        }
+    }
+
+    // keep trying until mongo takes the batch, or until closed, returns
+    // whether it was applied
+    private boolean applyAll(List<Write> batch) {
+        while (true) {
+            try {
+                int start = 0;
+                while (start < batch.size()) {
+                    int end = start;
+                    while (end < batch.size() && batch.get(end).collection.equals(batch.get(start).collection))
+                        end++;
+                    applyRun(batch.subList(start, end));
+                    start = end;
+                }
+                applied.addAndGet(batch.size());
+                batches.incrementAndGet();
+                return true;
+            } catch (MongoException e) {
+                log.error("applying {} writes failed, retrying", batch.size(), e);
+            }
+            lock.lock();
+            try {
+                if (closing && applier == Thread.currentThread())
+                    return false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    // writes to one collection, in order
+    // a save of a document that already has a newer record applied fails
+    // its upsert on the _id, that's the record already being there, so
+    // carry on after it
+    private void applyRun(List<Write> run) {
+        int start = 0;
+        while (start < run.size()) {
+            BulkWriteOperation bulk = db.getCollection(run.get(start).collection).initializeOrderedBulkOperation();
+            for (Write write : run.subList(start, run.size())) {
+                DBObject query = new BasicDBObject("_id", write.id)
+                        .append(SEQ, new BasicDBObject("$not", new BasicDBObject("$gte", write.seq)));
+                if (write.document != null) {
+                    // the document may be what reads are getting, so it's left as it is
+                    DBObject document = new BasicDBObject(write.document.toMap());
+                    document.put(SEQ, write.seq);
+                    bulk.find(query).upsert().replaceOne(document);
+                } else {
+                    DBObject set = (DBObject)write.update.get("$set");
+                    if (set == null) {
+                        set = new BasicDBObject();
+                        write.update.put("$set", set);
+                    }
+                    set.put(SEQ, write.seq);
+                    bulk.find(query).updateOne(write.update);
+                }
+            }
+            try {
+                bulk.execute();
+                return;
+            } catch (BulkWriteException e) {
+                List<BulkWriteError> errors = e.getWriteErrors();
+                if (errors.size() != 1 || errors.get(0).getCode() != DUPLICATE_KEY || e.getWriteConcernError() != null)
+                    throw e;
+                start += errors.get(0).getIndex() + 1;
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!checkpoint.exists())
+            return 0;
+        RandomAccessFile raf = new RandomAccessFile(checkpoint, "r");
+        try {
+            return raf.length() >= 8 ? raf.readLong() : 0;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // how far mongo is known to be up to, it's fine for this to be behind
+    private void writeCheckpoint(long seq) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw");
+            try {
+                raf.writeLong(seq);
+            } finally {
+                raf.close();
+            }
+            journal.retainAfter(seq);
+        } catch (IOException e) {
+            log.warn("can't write write behind checkpoint {}", checkpoint, e);
+        }
+    }
+
+    public String getStats() {
+        int queued;
+        lock.lock();
+        try {
+            queued = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        return String.format("queued = %d, applied = %d, batches = %d, most queued = %d",
+                queued, applied.get(), batches.get(), maxQueued);
+    }
+}
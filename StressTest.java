@@ -0,0 +1,108 @@
+package mud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.speechlet.User;
+import com.amazon.speech.ui.SsmlOutputSpeech;
+
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// hammers a single MudSpeechlet with many sessions at once and checks that
+// every response only talks about its own session
+// run ./test first so the world exists, then: java mud.StressTest [sessions]
+public class StressTest {
+    private static final Logger log = LoggerFactory.getLogger(StressTest.class);
+
+    private static final String NEW_PLAYER_GREETING = "I always love a new player.";
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final MudSpeechlet speechlet = new MudSpeechlet();
+        final String run = Long.toString(System.currentTimeMillis(), 36);
+
+        ExecutorService executor = newExecutor();
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final int n = i;
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return runSession(speechlet, run, n);
+                }
+            }));
+        }
+
+        int failures = 0;
+        for (Future<String> result : results) {
+            String failure = result.get();
+            if (failure != null) {
+                log.error(failure);
+                failures++;
+            }
+        }
+        executor.shutdown();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        log.info("{} sessions, {} requests in {} ms, {} failures", sessions, sessions * 2, elapsedMs, failures);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // use virtual threads when the jvm has them, otherwise a big plain pool,
+    // MudLoadGenerator runs its sessions on one too
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+
+    // launch as a brand new player, then ask for something only this session
+    // knows about, returns null on success or a description of what went wrong
+    private static String runSession(MudSpeechlet speechlet, String run, int n) throws Exception {
+        String userId = "stress-" + run + "-" + n;
+        Session session = Session.builder()
+                .withSessionId("session-" + run + "-" + n)
+                .withUser(User.builder().withUserId(userId).build())
+                .build();
+
+        LaunchRequest launch = LaunchRequest.builder().withRequestId("launch-" + n).build();
+        String ssml = getSsml(speechlet.onLaunch(launch, session));
+        if (!ssml.contains(NEW_PLAYER_GREETING))
+            return userId + ": launch was not greeted as a new player: " + ssml;
+
+        // the object name is unique to this session, so it has to come back
+        // in our response and nobody else's
+        String marker = "widget" + n + "x";
+        Map<String, Slot> slots = new HashMap<String, Slot>();
+        slots.put("ObjectSpec", Slot.builder().withName("ObjectSpec").withValue(marker).build());
+        Intent intent = Intent.builder().withName("GetIntent").withSlots(slots).build();
+        IntentRequest get = IntentRequest.builder().withRequestId("get-" + n).withIntent(intent).build();
+        ssml = getSsml(speechlet.onIntent(get, session));
+        if (!ssml.contains(marker))
+            return userId + ": missing own object in response: " + ssml;
+        if (ssml.contains(NEW_PLAYER_GREETING))
+            return userId + ": greeted as new twice: " + ssml;
+        if (ssml.replace(marker, "").contains("widget"))
+            return userId + ": response leaked another session's output: " + ssml;
+        return null;
+    }
+
+    private static String getSsml(SpeechletResponse response) {
+        return ((SsmlOutputSpeech)response.getOutputSpeech()).getSsml();
+    }
+}
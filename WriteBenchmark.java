@@ -0,0 +1,108 @@
+package mud;
+
+import com.mongodb.MongoClient;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.Morphia;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// compares the bytes sent to mongo per intent when dirty documents are saved
+// whole against targeted field updates, for rooms holding more and more items
+// uses its own database so it can be run next to a live world:
+// java mud.WriteBenchmark
+public class WriteBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(WriteBenchmark.class);
+
+    private static final String MONGO_DATABASE = "mud_bench";
+
+    private static final String userId = "benchuser";
+
+    private static final int[] ROOM_SIZES = { 0, 10, 100, 500 };
+
+    private static Morphia morphia;
+    private static Datastore datastore;
+    private static MudMorphiaStore store;
+
+    public static void main(String[] args) {
+        morphia = MudEngine.getMorphia();
+        datastore = morphia.createDatastore(new MongoClient(), MONGO_DATABASE);
+        store = new MudMorphiaStore(datastore, morphia);
+        store.setMeasureBytes(true);
+
+        System.out.println("items\tintent\tfull\tpartial");
+        for (int roomSize : ROOM_SIZES) {
+            long[] full = run(roomSize, false);
+            long[] partial = run(roomSize, true);
+            System.out.println(roomSize + "\tdrop\t" + full[0] + "\t" + partial[0]);
+            System.out.println(roomSize + "\tget\t" + full[1] + "\t" + partial[1]);
+            System.out.println(roomSize + "\tgo\t" + full[2] + "\t" + partial[2]);
+        }
+    }
+
+    // returns the bytes written for a drop, a get and a go
+    private static long[] run(int roomSize, boolean partialUpdates) {
+        createRooms(roomSize);
+        MudWorldCache cache = new MudWorldCache();
+        long[] bytes = new long[3];
+
+        long start = store.getBytesWritten();
+        MudUnitOfWork unitOfWork = newUnitOfWork(cache, partialUpdates);
+        MudPlayer player = MudManagerHelper.getPlayer(unitOfWork, userId);
+        MudManagerHelper.playerDrop(unitOfWork, player, "key");
+        unitOfWork.flush();
+        bytes[0] = store.getBytesWritten() - start;
+
+        start = store.getBytesWritten();
+        unitOfWork = newUnitOfWork(cache, partialUpdates);
+        player = MudManagerHelper.getPlayer(unitOfWork, userId);
+        MudItem mudItem = MudManagerHelper.playerFindItemInRoom(unitOfWork, player, "key");
+        MudManagerHelper.playerGetFromRoom(unitOfWork, player, mudItem, "key");
+        unitOfWork.flush();
+        bytes[1] = store.getBytesWritten() - start;
+
+        start = store.getBytesWritten();
+        unitOfWork = newUnitOfWork(cache, partialUpdates);
+        player = MudManagerHelper.getPlayer(unitOfWork, userId);
+        MudExit mudExit = MudManagerHelper.playerGetExit(unitOfWork, player, "north");
+        MudManagerHelper.playerMove(unitOfWork, player, mudExit);
+        unitOfWork.flush();
+        bytes[2] = store.getBytesWritten() - start;
+
+        log.info("room with {} items, partialUpdates = {}: {}", roomSize, partialUpdates, cache.getStats());
+        return bytes;
+    }
+
+    private static MudUnitOfWork newUnitOfWork(MudWorldCache cache, boolean partialUpdates) {
+        MudUnitOfWork unitOfWork = new MudUnitOfWork(store, cache);
+        unitOfWork.setPartialUpdates(partialUpdates);
+        return unitOfWork;
+    }
+
+    // a room full of dropped keys with an exit north, and a player standing
+    // in it holding one more key
+    private static void createRooms(int roomSize) {
+        MudRoom busyRoom = new MudRoom();
+        busyRoom.setDescription("A busy room.");
+        for (int i = 0; i < roomSize; i++)
+            busyRoom.addItem(MudManagerHelper.itemNew("key", "brass key", "A simple brass key is here."));
+        datastore.save(busyRoom);
+
+        MudRoom northRoom = new MudRoom();
+        northRoom.setDescription("A quiet room.");
+        datastore.save(northRoom);
+
+        MudExit northExit = new MudExit();
+        northExit.setDestination(northRoom);
+        busyRoom.addExit("north", northExit);
+
+        MudPlayer player = new MudPlayer();
+        player.setId(userId);
+        player.setRoom(busyRoom);
+        player.setIsNew(false);
+        player.addItem(MudManagerHelper.itemNew("key", "brass key", "A simple brass key is here."));
+        busyRoom.addPlayer(player);
+        datastore.save(player);
+        datastore.save(busyRoom);
+    }
+}
@@ -0,0 +1,38 @@
+package mud;
+
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.User;
+
+// the Test world in a MudMemoryStore, with a player standing in the
+// start room next to a pile of keys that all answer to "key"
+final class MudBenchmarkWorld {
+    static final String USER_ID = "benchuser";
+
+    final MudMemoryStore store;
+    final MudEngine engine;
+    final MudPlayer player;
+
+    MudBenchmarkWorld(int keys) {
+        store = new MudMemoryStore(MudEngine.getMorphia());
+        Test.createWorld(store);
+        engine = new MudEngine(store);
+
+        MudUnitOfWork unitOfWork = engine.newUnitOfWork();
+        player = MudManagerHelper.getPlayer(unitOfWork, USER_ID);
+        player.setIsNew(false);
+        player.setSessionId(session().getSessionId());
+        MudRoom room = player.getRoom();
+        for (int i = 0; i < keys; i++)
+            room.addItem(MudManagerHelper.itemNew("key", "brass key " + i, "A simple brass key is here."));
+        unitOfWork.markRewrite(player);
+        unitOfWork.markRewrite(room);
+        unitOfWork.flush();
+    }
+
+    static Session session() {
+        return Session.builder()
+                .withSessionId("benchsession")
+                .withUser(User.builder().withUserId(USER_ID).build())
+                .build();
+    }
+}
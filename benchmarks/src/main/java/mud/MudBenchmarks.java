@@ -0,0 +1,44 @@
+package mud;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+// runs every benchmark and writes the results as json so runs can be
+// compared against each other to spot regressions
+// java -jar benchmarks/target/benchmarks.jar [results file] [jmh options]
+public class MudBenchmarks {
+    private static final String DEFAULT_RESULTS = "jmh-results.json";
+
+    public static void main(String[] args) throws Exception {
+        String results = DEFAULT_RESULTS;
+        if (args.length > 0 && !args[0].startsWith("-")) {
+            results = args[0];
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include("mud\\..*Benchmark")
+                .jvmArgsAppend(jvmArgs())
+                .resultFormat(ResultFormatType.JSON)
+                .result(results)
+                .build();
+        new Runner(options).run();
+    }
+
+    // the request handling logs every request, which would be most of what
+    // gets measured, and morphia's proxies need java.lang opened on java 9+
+    private static String[] jvmArgs() {
+        List<String> jvmArgs = new ArrayList<String>();
+        jvmArgs.add("-Dorg.slf4j.simpleLogger.defaultLogLevel=warn");
+        if (!System.getProperty("java.specification.version").startsWith("1."))
+            jvmArgs.add("--add-opens=java.base/java.lang=ALL-UNNAMED");
+        return jvmArgs.toArray(new String[jvmArgs.size()]);
+    }
+}
@@ -0,0 +1,65 @@
+package mud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// adding and removing items in a container where most of them share a name,
+// the map holds size items spread over names different short names
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MudItemMapBenchmark {
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    @Param({ "1", "10" })
+    int names;
+
+    private MudItemMap itemMap;
+    private MudItem item;
+    private String oldest;
+
+    @Setup
+    public void setup() {
+        itemMap = new MudItemMap();
+        for (int i = 0; i < size; i++)
+            itemMap.add(MudManagerHelper.itemNew("key" + (i % names), "brass key " + i, "A key."));
+        item = MudManagerHelper.itemNew("key0", "brass key", "A key.");
+        int stack = (size + names - 1) / names;
+        oldest = stack > 1 ? "key0 " + stack : "key0";
+    }
+
+    // on top of a stack and straight back off
+    @Benchmark
+    public MudItem addRemoveNewest() {
+        itemMap.add(item);
+        return itemMap.remove("key0");
+    }
+
+    // the bottom of the biggest stack, which is put back on top
+    @Benchmark
+    public MudItem removeOldestAdd() {
+        MudItem removed = itemMap.remove(oldest);
+        itemMap.add(removed);
+        return removed;
+    }
+
+    @Benchmark
+    public MudItem getOldest() {
+        return itemMap.get(oldest);
+    }
+}
@@ -0,0 +1,45 @@
+package mud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// rendering the room description, from scratch and from the room's cache
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MudRenderBenchmark {
+    @Param({ "10", "100", "1000" })
+    int keys;
+
+    private MudRoom room;
+
+    @Setup
+    public void setup() {
+        room = new MudBenchmarkWorld(keys).player.getRoom();
+        room.setDescriptionSSML(MudManager.getRoomFullDescriptionSSML(room), room.getVersion());
+    }
+
+    @Benchmark
+    public String render() {
+        return MudManager.getRoomFullDescriptionSSML(room);
+    }
+
+    @Benchmark
+    public String cached() {
+        return room.getDescriptionSSML();
+    }
+}
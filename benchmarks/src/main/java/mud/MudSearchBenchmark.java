@@ -0,0 +1,59 @@
+package mud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// searching the player and a room full of keys, by short and by full name
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MudSearchBenchmark {
+    private static final MudItemQuery LOOK_QUERY = new MudItemQuery.Builder()
+            .isVisible(true).includePlayer().includeRoom().includeExits().build();
+    private static final MudItemQuery FULL_NAME_QUERY = new MudItemQuery.Builder()
+            .isVisible(true).includePlayer().includeRoom().includeExits().includeFullName().build();
+
+    @Param({ "10", "100", "1000" })
+    int keys;
+
+    private MudPlayer player;
+
+    @Setup
+    public void setup() {
+        player = new MudBenchmarkWorld(keys).player;
+    }
+
+    @Benchmark
+    public MudItemExitSearchResult shortName() {
+        return MudManagerHelper.playerItemExitSearch(player, "key", LOOK_QUERY);
+    }
+
+    @Benchmark
+    public MudItemExitSearchResult fullName() {
+        return MudManagerHelper.playerItemExitSearch(player, "brass key 0", FULL_NAME_QUERY);
+    }
+
+    @Benchmark
+    public MudItemExitSearchResult exit() {
+        return MudManagerHelper.playerItemExitSearch(player, "north", LOOK_QUERY);
+    }
+
+    @Benchmark
+    public MudItemExitSearchResult missing() {
+        return MudManagerHelper.playerItemExitSearch(player, "unicorn", FULL_NAME_QUERY);
+    }
+}
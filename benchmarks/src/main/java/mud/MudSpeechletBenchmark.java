@@ -0,0 +1,97 @@
+package mud;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletException;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+// whole requests through MudSpeechlet, from loading the player to writing
+// what changed, against the world in a MudMemoryStore
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MudSpeechletBenchmark {
+    @Param({ "10", "100", "1000" })
+    int keys;
+
+    private MudSpeechlet speechlet;
+    private Session session;
+    private LaunchRequest launch;
+    private IntentRequest look;
+    private IntentRequest lookAt;
+    private IntentRequest go;
+    private IntentRequest drop;
+    private IntentRequest get;
+
+    @Setup
+    public void setup() throws SpeechletException {
+        speechlet = new MudSpeechlet(new MudBenchmarkWorld(keys).engine);
+        session = MudBenchmarkWorld.session();
+        launch = LaunchRequest.builder().withRequestId("launch").build();
+        look = intent("LookIntent", null, null);
+        lookAt = intent("LookIntent", "ObjectSpec", "sign");
+        go = intent("GoIntent", "ExitSpec", "north");
+        drop = intent("DropIntent", "ObjectSpec", "key");
+        get = intent("GetIntent", "ObjectSpec", "key");
+        // something to drop
+        speechlet.onIntent(get, session);
+    }
+
+    private static IntentRequest intent(String name, String slotName, String slotValue) {
+        Map<String, Slot> slots = new HashMap<String, Slot>();
+        if (slotName != null)
+            slots.put(slotName, Slot.builder().withName(slotName).withValue(slotValue).build());
+        Intent intent = Intent.builder().withName(name).withSlots(slots).build();
+        return IntentRequest.builder().withRequestId(name).withIntent(intent).build();
+    }
+
+    @Benchmark
+    public SpeechletResponse launch() throws SpeechletException {
+        return speechlet.onLaunch(launch, session);
+    }
+
+    @Benchmark
+    public SpeechletResponse look() throws SpeechletException {
+        return speechlet.onIntent(look, session);
+    }
+
+    @Benchmark
+    public SpeechletResponse lookAt() throws SpeechletException {
+        return speechlet.onIntent(lookAt, session);
+    }
+
+    // the north exit is locked, so this never leaves the room
+    @Benchmark
+    public SpeechletResponse go() throws SpeechletException {
+        return speechlet.onIntent(go, session);
+    }
+
+    // a drop and a get, so the room stays the same size
+    @Benchmark
+    public SpeechletResponse dropGet() throws SpeechletException {
+        speechlet.onIntent(drop, session);
+        return speechlet.onIntent(get, session);
+    }
+}